@@ -16,16 +16,22 @@
 
 package com.google.android.apps.proofer;
 
+import com.google.android.apps.proofer.codec.FrameCodec;
+
 import android.app.Activity;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 import android.view.MotionEvent;
+import android.view.SurfaceView;
 import android.view.View;
 import android.view.View.OnTouchListener;
 import android.view.ViewTreeObserver;
@@ -34,32 +40,79 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DesktopViewerActivity extends Activity implements
         ViewTreeObserver.OnGlobalLayoutListener {
     private static final String TAG = "DesktopViewerActivity";
     private static final int PORT_DEVICE = 7800;
+    // How long to wait before trying again if the port can't be bound.
+    private static final long BIND_RETRY_MILLIS = 1000;
+    // A swipe at least this fraction of the view's width, and quicker than this, flips to
+    // another slide.
+    private static final float SLIDE_SWIPE_MIN_WIDTH_FRACTION = 0.25f;
+    private static final long SLIDE_SWIPE_MAX_MILLIS = 300;
+    // Frames received but not yet decoded, beyond the one being decoded.
+    private static final int FRAME_QUEUE_CAPACITY = 2;
+    // Largest frame payload accepted, well beyond any real frame; longer ones mean the stream
+    // is corrupt.
+    private static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    // Caps how often frames are requested in request/reply mode, beyond the display's refresh
+    // rate and how fast frames decode, or 0 for no further cap.
+    private static final int MAX_REQUEST_FPS = 0;
+
+    // Messages to the UI thread.
+    private static final int MSG_SHOWING_FRAMES = 1;
+    private static final int MSG_DISCONNECTED = 2;
 
     private View mTargetView;
     private TextView mStatusTextView;
 
-    private boolean mKillServer;
+    // Listens for the desktop while resumed. Each server thread waits for the one before it to
+    // finish, so connections never overlap.
+    private DeviceServer mServer;
+    private Thread mServerThread;
 
     private boolean mWasAtSomePointConnected = false;
     private boolean mConnected = false;
 
-    private int mOffsetX;
-    private int mOffsetY;
-
-    private int mWidth;
-    private int mHeight;
-
-    private final Object mDataSyncObject = new Object();
-    private byte[] mImageData;
+    // Set on the UI thread and read by the socket thread without locking; a viewport made of
+    // values from two different updates is corrected by the next one.
+    private volatile int mOffsetX;
+    private volatile int mOffsetY;
+    private volatile int mWidth;
+    private volatile int mHeight;
+
+    // Slides to move by, swiped on the UI thread and not yet sent to the desktop.
+    private final AtomicInteger mPendingSlides = new AtomicInteger();
+
+    // Draws copies of the frame bitmap onto the target surface on its own thread.
+    private FrameRenderer mRenderer;
+    // Whether the UI thread has been told a frame is showing since it was last told of a
+    // disconnection.
+    private volatile boolean mShowingFrames;
+
+    // The last full frame received, with any tile updates since applied to it. Kept across
+    // connections, and only touched by the decode thread of the current one.
+    private Bitmap mFrameBitmap;
+    private Canvas mFrameCanvas;
+    private final Paint mCopyPaint = new Paint();
+    private final Paint mScalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mFrameRect = new Rect();
+
+    // Time to display the last frame, in microseconds, or -1 if not yet reported to the
+    // desktop.
+    private volatile int mLastDisplayMicros = -1;
 
     private SystemUiHider mSystemUiHider;
 
@@ -76,8 +129,24 @@ public class DesktopViewerActivity extends Activity implements
 
         mStatusTextView = (TextView) findViewById(R.id.status_text);
 
+        // Frames and tiles replace what's under them rather than blending with it.
+        mCopyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+        mScalePaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+
         mTargetView = findViewById(R.id.target);
         mTargetView.setOnTouchListener(mTouchListener);
+        float refreshRate = getWindowManager().getDefaultDisplay().getRefreshRate();
+        mRenderer = new FrameRenderer(refreshRate, new FrameRenderer.FrameRendererCallbacks() {
+            public void onFrameDisplayed(FrameRenderer.Frame frame) {
+                mLastDisplayMicros = nowMicros() - frame.postedMicros;
+                if (!mShowingFrames) {
+                    mShowingFrames = true;
+                    mHandler.sendEmptyMessage(MSG_SHOWING_FRAMES);
+                }
+            }
+        });
+        ((SurfaceView) mTargetView).getHolder().addCallback(mRenderer);
+        mRenderer.start();
         mTargetView.getViewTreeObserver().addOnGlobalLayoutListener(this);
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
@@ -91,13 +160,20 @@ public class DesktopViewerActivity extends Activity implements
     @Override
     public void onResume() {
         super.onResume();
-        mKillServer = false;
-        new Thread(mSocketThreadRunnable).start();
+        mServer = new DeviceServer(mServerThread);
+        mServerThread = new Thread(mServer, "DeviceServer");
+        mServerThread.start();
     }
 
     public void onPause() {
         super.onPause();
-        mKillServer = true;
+        mServer.close();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        mRenderer.quit();
     }
 
     private OnTouchListener mTouchListener = new OnTouchListener() {
@@ -105,6 +181,7 @@ public class DesktopViewerActivity extends Activity implements
         float mDownY;
         float mDownOffsetX;
         float mDownOffsetY;
+        long mDownTime;
 
         @Override
         public boolean onTouch(View v, MotionEvent event) {
@@ -119,6 +196,19 @@ public class DesktopViewerActivity extends Activity implements
                     mDownY = event.getY();
                     mDownOffsetX = mOffsetX;
                     mDownOffsetY = mOffsetY;
+                    mDownTime = event.getEventTime();
+                    break;
+
+                case MotionEvent.ACTION_UP:
+                    // Quick, mostly horizontal swipes step through the desktop's slideshow,
+                    // forward when swiping to the left.
+                    float dx = event.getX() - mDownX;
+                    float dy = event.getY() - mDownY;
+                    if (event.getEventTime() - mDownTime <= SLIDE_SWIPE_MAX_MILLIS
+                            && Math.abs(dx) >= v.getWidth() * SLIDE_SWIPE_MIN_WIDTH_FRACTION
+                            && Math.abs(dx) > 2 * Math.abs(dy)) {
+                        mPendingSlides.addAndGet((dx < 0) ? 1 : -1);
+                    }
                     break;
 
                 case MotionEvent.ACTION_MOVE:
@@ -138,32 +228,30 @@ public class DesktopViewerActivity extends Activity implements
 
     private Handler mHandler = new Handler() {
         public void handleMessage(Message msg) {
-            Bitmap bm = (Bitmap) msg.obj;
-
-            if (bm == null) {
+            if (msg.what == MSG_DISCONNECTED) {
                 // Not connected
                 if (mConnected) {
                     // Disconnected (was previously connected)
                     Toast.makeText(DesktopViewerActivity.this,
                             R.string.toast_disconnected, Toast.LENGTH_SHORT).show();
                 }
-            } else {
-                // Connected
-                //noinspection deprecation
-                mTargetView.setBackgroundDrawable(new BitmapDrawable(getResources(), bm));
-                mStatusTextView.setVisibility(View.GONE);
-
-                if (!mConnected && mWasAtSomePointConnected) {
-                    // Reconnected (was at some point connected, then connection list, now it's
-                    // back)
-                    Toast.makeText(DesktopViewerActivity.this,
-                            R.string.toast_reconnected, Toast.LENGTH_SHORT).show();
-                }
+                mConnected = false;
+                mShowingFrames = false;
+                return;
+            }
 
-                mWasAtSomePointConnected = true;
+            // Connected
+            mStatusTextView.setVisibility(View.GONE);
+
+            if (!mConnected && mWasAtSomePointConnected) {
+                // Reconnected (was at some point connected, then connection list, now it's
+                // back)
+                Toast.makeText(DesktopViewerActivity.this,
+                        R.string.toast_reconnected, Toast.LENGTH_SHORT).show();
             }
 
-            mConnected = (bm != null);
+            mWasAtSomePointConnected = true;
+            mConnected = true;
         }
     };
 
@@ -172,88 +260,539 @@ public class DesktopViewerActivity extends Activity implements
     }
 
     private void updateDimensions() {
-        synchronized (mDataSyncObject) {
-            mWidth = mTargetView.getWidth();
-            mHeight = mTargetView.getHeight();
-            mImageData = new byte[mWidth * mHeight * 3];
-        }
+        mWidth = mTargetView.getWidth();
+        mHeight = mTargetView.getHeight();
     }
 
-    private int readFully(BufferedInputStream bis, byte[] data, int offset, int len)
+    private int readFully(InputStream is, byte[] data, int offset, int len)
             throws IOException {
         int count = 0;
         int got = 0;
         while (count < len) {
-            got = bis.read(data, count, len - count);
+            got = is.read(data, offset + count, len - count);
 
             if (got >= 0) {
                 count += got;
             } else {
-                break;
+                throw new EOFException();
             }
         }
 
         if (Log.isLoggable(TAG, Log.DEBUG)) {
-            Log.d(TAG, "Got " + got + " bytes");
+            Log.d(TAG, "Got " + count + " bytes");
         }
-        return got;
+        return count;
     }
 
-    private Runnable mSocketThreadRunnable = new Runnable() {
+    private void ensureFrameBitmap(int width, int height) {
+        if (mFrameBitmap == null || mFrameBitmap.getWidth() != width
+                || mFrameBitmap.getHeight() != height) {
+            if (mFrameBitmap != null) {
+                mFrameBitmap.recycle();
+            }
+            mFrameBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mFrameCanvas = new Canvas(mFrameBitmap);
+        }
+    }
+
+    /**
+     * Copies the frame bitmap into the renderer's next frame, to be drawn at the next vsync.
+     */
+    private void postFrame() {
+        FrameRenderer.Frame frame = mRenderer.getBack();
+        frame.ensureSize(mFrameBitmap.getWidth(), mFrameBitmap.getHeight());
+        frame.canvas.drawBitmap(mFrameBitmap, 0, 0, mCopyPaint);
+        frame.postedMicros = nowMicros();
+        mRenderer.publish();
+    }
+
+    private void writeNavigation(DataOutputStream dos) throws IOException {
+        int slides = mPendingSlides.getAndSet(0);
+        if (slides != 0) {
+            dos.writeInt(Protocol.MSG_NAVIGATE);
+            dos.writeInt(slides);
+        }
+    }
+
+    /**
+     * Returns a microsecond clock that wraps around, which is fine for measuring durations with
+     * int subtraction.
+     */
+    private static int nowMicros() {
+        return (int) (System.nanoTime() / 1000);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Listens for the desktop on {@link #PORT_DEVICE} until closed, serving one connection at a
+     * time and accepting the next as soon as the last one ends. The listening socket stays open
+     * throughout, and closing the server closes it along with the current connection, which
+     * wakes up the server's thread at once.
+     */
+    private class DeviceServer implements Runnable {
+        private final Thread mPrevious;
+
+        // Guarded by this.
+        private ServerSocket mServerSocket;
+        private Connection mConnection;
+        private boolean mClosed;
+
+        /**
+         * @param previous The thread of the server before this one, if any, which must already
+         * be closed.
+         */
+        public DeviceServer(Thread previous) {
+            mPrevious = previous;
+        }
+
         public void run() {
-            while (true) {
-                ServerSocket server = null;
+            try {
+                // The previous server is closed, but may still be winding down its last
+                // connection, which mustn't overlap with the next one.
+                if (mPrevious != null) {
+                    mPrevious.join();
+                }
 
+                ServerSocket serverSocket = listen();
+                while (serverSocket != null) {
+                    Socket socket = serverSocket.accept();
+                    Log.i(TAG, "Got connection request");
+                    Connection connection = new Connection(socket);
+                    synchronized (this) {
+                        if (mClosed) {
+                            socket.close();
+                            return;
+                        }
+                        mConnection = connection;
+                    }
+
+                    try {
+                        connection.serve();
+                    } catch (Exception e) {
+                        if (!isClosed()) {
+                            Log.e(TAG, "Exception transferring data", e);
+                        }
+                    }
+
+                    synchronized (this) {
+                        mConnection = null;
+                    }
+                    if (!isClosed()) {
+                        mHandler.sendEmptyMessage(MSG_DISCONNECTED);
+                    }
+                }
+            } catch (Exception e) {
+                if (!isClosed()) {
+                    Log.e(TAG, "Exception accepting connections", e);
+                }
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Binds the listening socket, trying again while the port is taken. Returns null if the
+         * server is closed first.
+         */
+        private ServerSocket listen() throws IOException, InterruptedException {
+            while (true) {
+                ServerSocket serverSocket = new ServerSocket();
+                // Don't wait for connections from an earlier server to leave TIME_WAIT.
+                serverSocket.setReuseAddress(true);
                 try {
-                    Thread.sleep(1000);
-                    server = new ServerSocket(PORT_DEVICE);
-                } catch (Exception e) {
+                    serverSocket.bind(new InetSocketAddress(PORT_DEVICE));
+                } catch (IOException e) {
+                    serverSocket.close();
                     Log.e(TAG, "Error creating server socket", e);
+                    synchronized (this) {
+                        if (!mClosed) {
+                            wait(BIND_RETRY_MILLIS);
+                        }
+                    }
+                    if (isClosed()) {
+                        return null;
+                    }
                     continue;
                 }
 
-                while (true) {
-                    try {
-                        Socket socket = server.accept();
-                        Log.i(TAG, "Got connection request");
-                        BufferedInputStream bis = new BufferedInputStream(socket.getInputStream());
-                        DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-
-                        while (!mKillServer) {
-                            Thread.sleep(50);
-                            synchronized (mDataSyncObject) {
-                                dos.writeInt(mOffsetX);
-                                dos.writeInt(mOffsetY);
-                                dos.writeInt(mWidth);
-                                dos.writeInt(mHeight);
-                                dos.flush();
-
-                                if (Log.isLoggable(TAG, Log.DEBUG)) {
-                                    Log.d(TAG, "Wrote request");
-                                }
-
-                                byte[] inlen = new byte[4];
-                                readFully(bis, inlen, 0, 4);
-                                int len = ((inlen[0] & 0xFF) << 24) | ((inlen[1] & 0xFF) << 16)
-                                        | ((inlen[2] & 0xFF) << 8) | (inlen[3] & 0xFF);
-                                readFully(bis, mImageData, 0, len);
-
-                                Bitmap bm = BitmapFactory.decodeByteArray(mImageData, 0, len);
-                                mHandler.sendMessage(mHandler.obtainMessage(1, bm));
+                synchronized (this) {
+                    if (mClosed) {
+                        serverSocket.close();
+                        return null;
+                    }
+                    mServerSocket = serverSocket;
+                    return serverSocket;
+                }
+            }
+        }
+
+        public synchronized boolean isClosed() {
+            return mClosed;
+        }
+
+        /**
+         * Stops listening and closes the current connection, if any. Safe to call from any
+         * thread, any number of times.
+         */
+        public void close() {
+            ServerSocket serverSocket;
+            Connection connection;
+            synchronized (this) {
+                mClosed = true;
+                notifyAll();
+                serverSocket = mServerSocket;
+                connection = mConnection;
+            }
+
+            if (serverSocket != null) {
+                try {
+                    serverSocket.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * A single connection to the desktop, with state that starts afresh for each one. Frames are
+     * received on the server's thread and decoded on another, so that the next frame downloads
+     * while the previous one decodes.
+     */
+    private class Connection {
+        private final Socket mSocket;
+        private final FrameQueue mQueue = new FrameQueue(FRAME_QUEUE_CAPACITY);
+        private volatile boolean mClosed;
+
+        // The viewport last reported to the desktop, only touched by the receiving thread.
+        private int mSentOffsetX;
+        private int mSentOffsetY;
+        private int mSentWidth;
+        private int mSentHeight;
+
+        // Only touched by the decode thread, once the connection is set up.
+        private FrameCodec mCodec;
+        // Decoders for adaptive frames, which name their own codec, indexed by codec id.
+        private final FrameCodec[] mAdaptiveCodecs =
+                new FrameCodec[Protocol.CODEC_RGB565_LZ4 + 1];
+
+        // Time to decode the last frame, in microseconds, or -1 if not yet reported to the
+        // desktop.
+        private int mLastDecodeMicros = -1;
+        // Smoothed over recent frames, for pacing requests.
+        private volatile int mAverageDecodeMicros;
+
+        public Connection(Socket socket) {
+            mSocket = socket;
+        }
+
+        /**
+         * Talks to the desktop until the connection drops or is closed, then closes the socket.
+         */
+        public void serve() throws IOException, InterruptedException {
+            Thread decoder = null;
+            try {
+                DataInputStream dis = new DataInputStream(
+                        new BufferedInputStream(mSocket.getInputStream()));
+                final DataOutputStream dos = new DataOutputStream(
+                        new BufferedOutputStream(mSocket.getOutputStream()));
+
+                dos.writeInt(Protocol.HELLO_MAGIC);
+                dos.writeInt(Protocol.VERSION);
+                dos.writeInt(Protocol.FLAG_STREAMING | Protocol.FLAG_TILES
+                        | Protocol.FLAG_ADAPTIVE);
+                dos.writeInt(FrameCodec.SUPPORTED_CODECS);
+                dos.flush();
+
+                if (dis.readInt() != Protocol.HELLO_MAGIC) {
+                    throw new IOException("Unexpected hello from desktop");
+                }
+                // Older desktops don't understand timings or navigation.
+                int desktopVersion = dis.readInt();
+                final boolean sendTimings = desktopVersion >= 2;
+                boolean sendNavigation = desktopVersion >= 3;
+                mPendingSlides.set(0);
+                mLastDisplayMicros = -1;
+                int mode = dis.readInt();
+                dis.readInt(); // target fps
+                mCodec = FrameCodec.getCodec(dis.readInt());
+
+                decoder = new Thread(new Runnable() {
+                    public void run() {
+                        decodeLoop(dos, sendTimings);
+                    }
+                }, "Decoder");
+                decoder.start();
+
+                // Writes to the desktop come from both threads, and are made whole under the
+                // stream's lock.
+                if (mode == Protocol.MODE_STREAM) {
+                    // The desktop pushes frames; acknowledge each one once it's received, so that
+                    // the next one is sent while it decodes, reporting any viewport changes along
+                    // the way.
+                    synchronized (dos) {
+                        writeViewport(dos, Protocol.MSG_VIEWPORT);
+                        dos.flush();
+                    }
+
+                    while (!mClosed) {
+                        FrameQueue.Frame frame = mQueue.obtain();
+                        receiveFrame(dis, frame);
+                        int seq = frame.seq;
+                        if (!mQueue.put(frame)) {
+                            break;
+                        }
+
+                        synchronized (dos) {
+                            if (sendNavigation) {
+                                writeNavigation(dos);
                             }
+                            if (viewportChanged()) {
+                                writeViewport(dos, Protocol.MSG_VIEWPORT);
+                            }
+                            dos.writeInt(Protocol.MSG_ACK);
+                            dos.writeInt(seq);
+                            dos.flush();
                         }
+                    }
 
-                        bis.close();
-                        dos.close();
-                        socket.close();
-                        server.close();
-                        return;
-                    } catch (Exception e) {
-                        Log.e(TAG, "Exception transferring data", e);
-                        mHandler.sendMessage(mHandler.obtainMessage(1, null));
+                } else {
+                    long lastRequestNanos = 0;
+                    while (!mClosed) {
+                        if (!awaitNextRequest(lastRequestNanos)) {
+                            break;
+                        }
+                        lastRequestNanos = System.nanoTime();
+                        synchronized (dos) {
+                            if (sendNavigation) {
+                                writeNavigation(dos);
+                            }
+                            writeViewport(dos, Protocol.MSG_REQUEST);
+                            dos.flush();
+                        }
+
+                        if (Log.isLoggable(TAG, Log.DEBUG)) {
+                            Log.d(TAG, "Wrote request");
+                        }
+
+                        FrameQueue.Frame frame = mQueue.obtain();
+                        receiveFrame(dis, frame);
+                        if (!mQueue.put(frame)) {
+                            break;
+                        }
                     }
                 }
+            } finally {
+                close();
+                if (decoder != null) {
+                    decoder.join();
+                    mCodec.release();
+                    for (FrameCodec codec : mAdaptiveCodecs) {
+                        if (codec != null) {
+                            codec.release();
+                        }
+                    }
+                }
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Dropped " + mQueue.getDroppedCount() + " frames");
+                }
             }
         }
-    };
+
+        /**
+         * Closes the socket and the frame queue, waking up both of the connection's threads.
+         */
+        public void close() {
+            mClosed = true;
+            mQueue.close();
+            try {
+                mSocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /**
+         * Waits until it's time to request the next frame: once the decoder has caught up, no
+         * sooner after the last request than a frame takes to decode or {@link #MAX_REQUEST_FPS}
+         * allows, and then at the next vsync, so that frames are asked for only as fast as they
+         * can be shown. Returns false if the connection is closing.
+         */
+        private boolean awaitNextRequest(long lastRequestNanos) throws InterruptedException {
+            if (!mQueue.awaitEmpty()) {
+                return false;
+            }
+
+            long intervalNanos = mAverageDecodeMicros * 1000L;
+            if (MAX_REQUEST_FPS > 0) {
+                intervalNanos = Math.max(intervalNanos, 1000000000L / MAX_REQUEST_FPS);
+            }
+            long waitNanos = lastRequestNanos + intervalNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            }
+
+            mRenderer.awaitVsync();
+            return true;
+        }
+
+        /**
+         * Decodes queued frames, reporting their timings, until the queue is closed. If a frame
+         * can't be decoded, closes the connection so that the receiving side stops too.
+         */
+        private void decodeLoop(DataOutputStream dos, boolean sendTimings) {
+            try {
+                FrameQueue.Frame frame;
+                while ((frame = mQueue.take()) != null) {
+                    decodeFrame(frame);
+                    if (mLastDecodeMicros >= 0) {
+                        mAverageDecodeMicros += (mLastDecodeMicros - mAverageDecodeMicros) / 4;
+                    }
+                    int seq = frame.seq;
+                    mQueue.recycle(frame);
+                    if (sendTimings) {
+                        synchronized (dos) {
+                            writeTimings(dos, seq);
+                            dos.flush();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (!mClosed) {
+                    Log.e(TAG, "Exception decoding frames", e);
+                }
+                close();
+            }
+        }
+
+        private void writeViewport(DataOutputStream dos, int type) throws IOException {
+            mSentOffsetX = mOffsetX;
+            mSentOffsetY = mOffsetY;
+            mSentWidth = mWidth;
+            mSentHeight = mHeight;
+            dos.writeInt(type);
+            dos.writeInt(mSentOffsetX);
+            dos.writeInt(mSentOffsetY);
+            dos.writeInt(mSentWidth);
+            dos.writeInt(mSentHeight);
+        }
+
+        private boolean viewportChanged() {
+            return mSentOffsetX != mOffsetX || mSentOffsetY != mOffsetY
+                    || mSentWidth != mWidth || mSentHeight != mHeight;
+        }
+
+        /**
+         * Reads a single frame from the desktop into the given frame, without decoding it.
+         */
+        private void receiveFrame(DataInputStream dis, FrameQueue.Frame frame) throws IOException {
+            frame.type = dis.readInt();
+            frame.seq = dis.readInt();
+            int length = dis.readInt();
+            frame.ensureCapacity(length, MAX_FRAME_LENGTH);
+            frame.length = length;
+            readFully(dis, frame.data, 0, length);
+        }
+
+        /**
+         * Applies a received frame to the current frame bitmap and posts a copy of the result for
+         * display.
+         */
+        private void decodeFrame(FrameQueue.Frame frame) throws IOException {
+            byte[] data = frame.data;
+            int len = frame.length;
+            int decodeStartMicros = nowMicros();
+            mLastDecodeMicros = -1;
+
+            switch (frame.type) {
+                case Protocol.FRAME_IMAGE: {
+                    Bitmap bm = mCodec.decode(data, 0, len);
+                    if (bm != null) {
+                        ensureFrameBitmap(bm.getWidth(), bm.getHeight());
+                        mFrameCanvas.drawBitmap(bm, 0, 0, mCopyPaint);
+                        mLastDecodeMicros = nowMicros() - decodeStartMicros;
+                        postFrame();
+                    }
+                    break;
+                }
+
+                case Protocol.FRAME_ADAPTIVE: {
+                    if (len < 12) {
+                        throw new IOException("Truncated adaptive frame");
+                    }
+                    int codecId = readInt(data, 0);
+                    int width = readInt(data, 4);
+                    int height = readInt(data, 8);
+                    if (codecId < 0 || codecId >= mAdaptiveCodecs.length) {
+                        throw new IOException("Unknown codec " + codecId);
+                    }
+                    if (mAdaptiveCodecs[codecId] == null) {
+                        mAdaptiveCodecs[codecId] = FrameCodec.getCodec(codecId);
+                    }
+
+                    Bitmap bm = mAdaptiveCodecs[codecId].decode(data, 12, len - 12);
+                    if (bm != null) {
+                        // Possibly scaled down to save time on the wire.
+                        ensureFrameBitmap(width, height);
+                        mFrameRect.set(0, 0, width, height);
+                        mFrameCanvas.drawBitmap(bm, null, mFrameRect, mScalePaint);
+                        mLastDecodeMicros = nowMicros() - decodeStartMicros;
+                        postFrame();
+                    }
+                    break;
+                }
+
+                case Protocol.FRAME_TILES: {
+                    if (mFrameBitmap == null) {
+                        // Nothing to patch; the desktop always starts with a full frame.
+                        break;
+                    }
+
+                    // Buffers are reused, so check against the payload length rather than letting
+                    // a bad tile read stale bytes from an earlier frame.
+                    int count = (len >= 4) ? readInt(data, 0) : 0;
+                    int offset = 4;
+                    for (int i = 0; i < count; i++) {
+                        if (offset + 12 > len) {
+                            throw new IOException("Truncated tile frame");
+                        }
+                        int x = readInt(data, offset);
+                        int y = readInt(data, offset + 4);
+                        int tileLen = readInt(data, offset + 8);
+                        offset += 12;
+                        if (tileLen < 0 || tileLen > len - offset) {
+                            throw new IOException("Bad tile length " + tileLen);
+                        }
+
+                        Bitmap tile = mCodec.decode(data, offset, tileLen);
+                        if (tile != null) {
+                            mFrameCanvas.drawBitmap(tile, x, y, mCopyPaint);
+                        }
+                        offset += tileLen;
+                    }
+                    mLastDecodeMicros = nowMicros() - decodeStartMicros;
+                    postFrame();
+                    break;
+                }
+
+                case Protocol.FRAME_UNCHANGED:
+                    // Same as the frame already on screen, there's nothing to decode or redraw.
+                    break;
+            }
+        }
+
+        private void writeTimings(DataOutputStream dos, int seq) throws IOException {
+            int displayMicros = mLastDisplayMicros;
+            mLastDisplayMicros = -1;
+            dos.writeInt(Protocol.MSG_TIMINGS);
+            dos.writeInt(seq);
+            dos.writeInt(mLastDecodeMicros);
+            dos.writeInt(displayMicros);
+        }
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.apps.proofer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Hands frames from the thread receiving them to the thread decoding them, so that the next
+ * frame downloads while the previous one decodes. Holds only a few frames at a time: a full
+ * frame replaces any still waiting, since it would paint over them anyway, but tile frames
+ * patch the frame before them and so are never dropped; the receiver waits for room instead.
+ *
+ * <p>Frames and their buffers are recycled once decoded, so buffers grow to fit the largest
+ * frames seen and are then reused.
+ */
+public class FrameQueue {
+    private final int mCapacity;
+
+    // Guarded by this.
+    private final LinkedList<Frame> mFrames = new LinkedList<Frame>();
+    private final List<Frame> mFree = new ArrayList<Frame>();
+    private boolean mClosed;
+    private int mDroppedCount;
+
+    public static class Frame {
+        public int type;
+        public int seq;
+        public byte[] data;
+        public int length;
+
+        /**
+         * Makes room in the buffer for a payload of the given length, keeping the buffer if
+         * it's already big enough and otherwise growing it by at least half, up to the given
+         * maximum, so that later frames of about the same size fit too.
+         *
+         * @throws IOException if the length is negative or over the maximum, in which case the
+         * buffer is left as it was.
+         */
+        public void ensureCapacity(int length, int maxLength) throws IOException {
+            if (length < 0 || length > maxLength) {
+                throw new IOException("Bad frame length " + length);
+            }
+
+            int capacity = (data != null) ? data.length : 0;
+            if (capacity >= length) {
+                return;
+            }
+
+            capacity = (int) Math.min(maxLength, Math.max(length, capacity * 3L / 2));
+            data = null; // so the old buffer can be collected before the new one is allocated
+            data = new byte[capacity];
+        }
+    }
+
+    public FrameQueue(int capacity) {
+        mCapacity = capacity;
+    }
+
+    /**
+     * Returns a recycled frame to receive into, or a new one, whose buffer may be too small
+     * or null.
+     */
+    public synchronized Frame obtain() {
+        if (!mFree.isEmpty()) {
+            return mFree.remove(mFree.size() - 1);
+        }
+        return new Frame();
+    }
+
+    /**
+     * Queues the frame for decoding, waiting for room if it can't replace the frames already
+     * waiting. Returns false if the queue was closed.
+     */
+    public synchronized boolean put(Frame frame) throws InterruptedException {
+        if (frame.type == Protocol.FRAME_IMAGE || frame.type == Protocol.FRAME_ADAPTIVE) {
+            while (!mFrames.isEmpty()) {
+                recycle(mFrames.removeFirst());
+                ++mDroppedCount;
+            }
+        }
+
+        while (!mClosed && mFrames.size() >= mCapacity) {
+            wait();
+        }
+
+        if (mClosed) {
+            recycle(frame);
+            return false;
+        }
+
+        mFrames.addLast(frame);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Returns the oldest frame, waiting for one if needed, or null once the queue is closed.
+     * The frame should be recycled once decoded.
+     */
+    public synchronized Frame take() throws InterruptedException {
+        while (!mClosed && mFrames.isEmpty()) {
+            wait();
+        }
+
+        if (mClosed) {
+            return null;
+        }
+
+        Frame frame = mFrames.removeFirst();
+        notifyAll();
+        return frame;
+    }
+
+    /**
+     * Waits until the decoder has taken every queued frame. Returns false if the queue was
+     * closed.
+     */
+    public synchronized boolean awaitEmpty() throws InterruptedException {
+        while (!mClosed && !mFrames.isEmpty()) {
+            wait();
+        }
+        return !mClosed;
+    }
+
+    public synchronized void recycle(Frame frame) {
+        if (mFree.size() < mCapacity + 2) {
+            mFree.add(frame);
+        }
+    }
+
+    /**
+     * Returns how many frames were dropped because a newer full frame replaced them.
+     */
+    public synchronized int getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Wakes up and turns away both threads, dropping any frames still waiting.
+     */
+    public synchronized void close() {
+        mClosed = true;
+        mFrames.clear();
+        notifyAll();
+    }
+}
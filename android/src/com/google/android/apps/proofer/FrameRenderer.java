@@ -0,0 +1,261 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.apps.proofer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draws frames onto a surface from its own thread, so that neither the decoder nor the UI
+ * thread's touch handling and layout hold up the other. The decoder fills and publishes
+ * frames through a {@link TripleBuffer}; at most once per vsync, the render thread draws the
+ * newest one, skipping any that were replaced in the meantime.
+ *
+ * <p>Vsync comes from {@link Choreographer} on Jellybean and later. Earlier, frames are drawn
+ * as soon as they're published, and locking the surface's canvas does the pacing.
+ *
+ * <p>Other threads can also wait for vsync, to do their work at the rate frames are shown.
+ */
+public class FrameRenderer implements SurfaceHolder.Callback {
+    // How long to wait for a vsync that may never come, e.g. because the renderer quit.
+    private static final long VSYNC_TIMEOUT_MILLIS = 100;
+
+    private final TripleBuffer<Frame> mFrames = new TripleBuffer<Frame>(
+            new Frame(), new Frame(), new Frame());
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mDestRect = new Rect();
+    private final FrameRendererCallbacks mCallbacks;
+    private final AtomicBoolean mRenderRequested = new AtomicBoolean();
+    private final long mFrameIntervalMillis;
+
+    // Counts vsyncs seen by the render thread, guarded by the lock, which is notified on each.
+    private final Object mVsyncLock = new Object();
+    private long mVsyncCount;
+
+    // Only touched by the render thread, and null before Jellybean.
+    private ChoreographerVsync mVsync;
+
+    // Guarded by this. Drawing happens with this held, so that the surface can't go away
+    // mid-frame.
+    private Handler mHandler;
+    private Looper mLooper;
+    private SurfaceHolder mHolder;
+    private boolean mRedrawNeeded;
+
+    public static interface FrameRendererCallbacks {
+        /**
+         * Called on the render thread each time a newly published frame reaches the surface.
+         */
+        public void onFrameDisplayed(Frame frame);
+    }
+
+    /**
+     * A frame for the render thread to draw. Owned by the decoder between
+     * {@link #getBack()} and {@link #publish()}.
+     */
+    public static class Frame {
+        public Bitmap bitmap;
+        public Canvas canvas;
+        public int postedMicros;
+
+        /**
+         * Makes sure the bitmap is of the given size, replacing it if not.
+         */
+        public void ensureSize(int width, int height) {
+            if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+                if (bitmap != null) {
+                    bitmap.recycle();
+                }
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                canvas = new Canvas(bitmap);
+            }
+        }
+    }
+
+    /**
+     * @param refreshRate The display's refresh rate, in frames per second.
+     */
+    public FrameRenderer(float refreshRate, FrameRendererCallbacks callbacks) {
+        mFrameIntervalMillis = Math.max(1, Math.round(1000 / refreshRate));
+        mCallbacks = callbacks;
+    }
+
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                Looper.prepare();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                    mVsync = new ChoreographerVsync();
+                }
+                synchronized (FrameRenderer.this) {
+                    mHandler = new Handler();
+                    mLooper = Looper.myLooper();
+                }
+                requestRender();
+                Looper.loop();
+            }
+        }, "FrameRenderer");
+        thread.start();
+    }
+
+    public synchronized void quit() {
+        if (mLooper != null) {
+            mLooper.quit();
+            mLooper = null;
+            mHandler = null;
+        }
+    }
+
+    /**
+     * Returns the frame the decoder may draw into next. Only call from the decode thread.
+     */
+    public Frame getBack() {
+        return mFrames.getBack();
+    }
+
+    /**
+     * Hands the back frame over to be drawn at the next vsync.
+     */
+    public void publish() {
+        mFrames.publish();
+        requestRender();
+    }
+
+    /**
+     * Waits for the next vsync. Without {@link Choreographer}, waits for as long as a frame
+     * lasts at the display's refresh rate instead.
+     */
+    public void awaitVsync() throws InterruptedException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            Thread.sleep(mFrameIntervalMillis);
+            return;
+        }
+
+        synchronized (mVsyncLock) {
+            long seen = mVsyncCount;
+            requestRender();
+            long deadline = System.currentTimeMillis() + VSYNC_TIMEOUT_MILLIS;
+            long now;
+            while (mVsyncCount == seen && (now = System.currentTimeMillis()) < deadline) {
+                mVsyncLock.wait(deadline - now);
+            }
+        }
+    }
+
+    public void surfaceCreated(SurfaceHolder holder) {
+    }
+
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        synchronized (this) {
+            mHolder = holder;
+            mRedrawNeeded = true;
+        }
+        requestRender();
+    }
+
+    public synchronized void surfaceDestroyed(SurfaceHolder holder) {
+        mHolder = null;
+    }
+
+    private void requestRender() {
+        Handler handler;
+        synchronized (this) {
+            handler = mHandler;
+        }
+        if (handler != null && mRenderRequested.compareAndSet(false, true)) {
+            handler.post(mRenderRunnable);
+        }
+    }
+
+    private final Runnable mRenderRunnable = new Runnable() {
+        public void run() {
+            mRenderRequested.set(false);
+            if (mVsync == null) {
+                render();
+            } else {
+                mVsync.post();
+            }
+        }
+    };
+
+    /**
+     * Renders at a vsync from the {@link Choreographer}. Only ever loaded on Jellybean and later,
+     * where the interface it implements exists.
+     */
+    private class ChoreographerVsync implements Choreographer.FrameCallback {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+        private boolean mPosted;
+
+        public void post() {
+            if (!mPosted) {
+                mPosted = true;
+                mChoreographer.postFrameCallback(this);
+            }
+        }
+
+        public void doFrame(long frameTimeNanos) {
+            mPosted = false;
+            render();
+            synchronized (mVsyncLock) {
+                ++mVsyncCount;
+                mVsyncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Draws the newest frame, if it's one that hasn't been drawn yet or the surface needs
+     * redrawing.
+     */
+    private void render() {
+        boolean fresh = mFrames.update();
+        Frame frame = mFrames.getFront();
+        synchronized (this) {
+            if (mHolder == null || frame.bitmap == null || !(fresh || mRedrawNeeded)) {
+                return;
+            }
+
+            Canvas canvas = mHolder.lockCanvas();
+            if (canvas == null) {
+                return;
+            }
+            try {
+                mDestRect.set(0, 0, canvas.getWidth(), canvas.getHeight());
+                canvas.drawBitmap(frame.bitmap, null, mDestRect, mPaint);
+            } finally {
+                mHolder.unlockCanvasAndPost(canvas);
+            }
+            mRedrawNeeded = false;
+        }
+
+        if (fresh) {
+            mCallbacks.onFrameDisplayed(frame);
+        }
+    }
+}
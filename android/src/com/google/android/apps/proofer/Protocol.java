@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.proofer;
+
+/**
+ * Wire protocol constants shared with the desktop app. Must be kept in sync with
+ * com.google.android.desktop.proofer.Protocol.
+ *
+ * <p>Legacy viewers open with a bare 16-byte request (x, y, width, height) and wait for a
+ * length-prefixed PNG. Newer viewers open with {@link #HELLO_MAGIC}, which can never be a
+ * legacy x offset since those are clamped to be non-negative.
+ *
+ * <p>The device hello is the magic, its version, capability flags and a bitmask of supported
+ * codecs. The desktop replies with the magic, its version, the mode, the target frame rate and
+ * the codec it will use.
+ */
+public class Protocol {
+    public static final int HELLO_MAGIC = 0xADE51C4E;
+    public static final int VERSION = 3;
+
+    // Capability flags sent by the device in its hello.
+    public static final int FLAG_STREAMING = 1;
+    public static final int FLAG_TILES = 2;
+    public static final int FLAG_ADAPTIVE = 4;
+
+    // Frame codecs, advertised by the device as a bitmask of (1 << codec) and chosen by the
+    // desktop for the whole connection, except in FRAME_ADAPTIVE frames.
+    public static final int CODEC_PNG = 0;
+    public static final int CODEC_JPEG = 1;
+    public static final int CODEC_RGB565 = 2;
+    public static final int CODEC_RGB565_LZ4 = 3;
+
+    // Modes chosen by the desktop in its hello reply.
+    public static final int MODE_REQUEST_REPLY = 0;
+    public static final int MODE_STREAM = 1;
+
+    // Device to desktop messages. Each is an int type followed by type-specific ints.
+    public static final int MSG_REQUEST = 1; // x, y, width, height
+    public static final int MSG_VIEWPORT = 2; // x, y, width, height
+    public static final int MSG_ACK = 3; // seq
+    // Sent after each frame once both sides are at version 2 or later. Times are in
+    // microseconds, or -1 if there is nothing new to report; display time is that of the most
+    // recently displayed frame, which may be an earlier one.
+    public static final int MSG_TIMINGS = 4; // seq, decode time, display time
+    // Sent once both sides are at version 3 or later, when the user flips to another slide on the
+    // device. Ignored unless a slideshow is being shown.
+    public static final int MSG_NAVIGATE = 5; // slides to move by, negative to go back
+
+    // Desktop to device frames. Each is an int type, int seq, int length, then the payload.
+    public static final int FRAME_EMPTY = 0;
+    public static final int FRAME_IMAGE = 1;
+    // Payload is an int tile count, then for each tile its int x, int y, int length and data,
+    // to be drawn over the previous frame.
+    public static final int FRAME_TILES = 2;
+    // No payload; the frame is identical to the previous one.
+    public static final int FRAME_UNCHANGED = 3;
+    // Only sent to devices with FLAG_ADAPTIVE. Payload is an int codec, the int width and height
+    // of the frame, then a full image in that codec, which may be smaller than the frame and is
+    // to be stretched over it. Later tiles are drawn over the stretched frame as usual.
+    public static final int FRAME_ADAPTIVE = 4;
+
+    // Maximum number of unacknowledged frames the desktop keeps on the wire when streaming.
+    public static final int MAX_FRAMES_IN_FLIGHT = 2;
+}
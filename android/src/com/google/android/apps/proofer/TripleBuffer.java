@@ -0,0 +1,77 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.apps.proofer;
+
+/**
+ * Hands values from a single producer thread to a single consumer thread without either one
+ * ever waiting on the other. The producer fills the back slot and publishes it; the consumer
+ * picks up the most recently published slot, skipping any it didn't get to in time.
+ */
+public class TripleBuffer<T> {
+    private T mBack;
+    private T mMiddle;
+    private T mFront;
+    private boolean mFresh;
+
+    public TripleBuffer(T back, T middle, T front) {
+        mBack = back;
+        mMiddle = middle;
+        mFront = front;
+    }
+
+    /**
+     * Returns the slot the producer may write into. Only call from the producer thread.
+     */
+    public T getBack() {
+        return mBack;
+    }
+
+    /**
+     * Makes the back slot available to the consumer, giving the producer a new back slot.
+     */
+    public synchronized void publish() {
+        T swap = mMiddle;
+        mMiddle = mBack;
+        mBack = swap;
+        mFresh = true;
+    }
+
+    /**
+     * Moves the most recently published slot to the front, if there is one the consumer hasn't
+     * seen yet. Returns whether the front slot changed.
+     */
+    public synchronized boolean update() {
+        if (!mFresh) {
+            return false;
+        }
+
+        T swap = mFront;
+        mFront = mMiddle;
+        mMiddle = swap;
+        mFresh = false;
+        return true;
+    }
+
+    /**
+     * Returns the slot the consumer may read from until its next {@link #update()}. Only call
+     * from the consumer thread.
+     */
+    public T getFront() {
+        return mFront;
+    }
+}
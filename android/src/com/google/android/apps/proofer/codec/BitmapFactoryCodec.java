@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.proofer.codec;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * Decodes PNG and JPEG frames, into bitmaps from earlier frames of the same size where the
+ * platform allows it.
+ */
+public class BitmapFactoryCodec extends FrameCodec {
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+    public BitmapFactoryCodec() {
+        mOptions.inTempStorage = new byte[16 * 1024];
+    }
+
+    @Override
+    public Bitmap decode(byte[] data, int offset, int length) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // Bitmaps can't be decoded into, so only keep the latest one around to recycle.
+            release();
+            Bitmap bm = BitmapFactory.decodeByteArray(data, offset, length, mOptions);
+            if (bm != null) {
+                addBitmap(bm);
+            }
+            return bm;
+        }
+
+        mOptions.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, offset, length, mOptions);
+        mOptions.inJustDecodeBounds = false;
+        if (mOptions.outWidth <= 0 || mOptions.outHeight <= 0) {
+            return null;
+        }
+
+        Bitmap reuse = findBitmap(mOptions.outWidth, mOptions.outHeight,
+                Bitmap.Config.ARGB_8888);
+        mOptions.inMutable = true;
+        mOptions.inBitmap = reuse;
+        Bitmap bm;
+        try {
+            bm = BitmapFactory.decodeByteArray(data, offset, length, mOptions);
+        } catch (IllegalArgumentException e) {
+            // The bitmap couldn't be decoded into after all.
+            mOptions.inBitmap = null;
+            bm = BitmapFactory.decodeByteArray(data, offset, length, mOptions);
+        } finally {
+            mOptions.inBitmap = null;
+        }
+
+        if (bm != null && bm != reuse) {
+            addBitmap(bm);
+        }
+        return bm;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.proofer.codec;
+
+import com.google.android.apps.proofer.Protocol;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes frames (or tiles of frames) received from the desktop, which picks one of the codecs
+ * in {@link #SUPPORTED_CODECS} for each connection.
+ *
+ * <p>Decoded bitmaps belong to the codec, which keeps the few most recently used sizes around
+ * and decodes later frames of the same size into them, so that steady-state streaming doesn't
+ * allocate a bitmap per frame.
+ */
+public abstract class FrameCodec {
+    public static final int SUPPORTED_CODECS = (1 << Protocol.CODEC_PNG)
+            | (1 << Protocol.CODEC_JPEG)
+            | (1 << Protocol.CODEC_RGB565)
+            | (1 << Protocol.CODEC_RGB565_LZ4);
+
+    // Enough for a full frame, an inner tile, the right and bottom edge tiles and the corner
+    // tile where they meet.
+    private static final int MAX_POOLED_BITMAPS = 5;
+
+    // Most recently used first.
+    private final List<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+
+    public static FrameCodec getCodec(int id) {
+        switch (id) {
+            case Protocol.CODEC_PNG:
+            case Protocol.CODEC_JPEG:
+                return new BitmapFactoryCodec();
+            case Protocol.CODEC_RGB565:
+                return new Rgb565Codec();
+            case Protocol.CODEC_RGB565_LZ4:
+                return new Lz4Rgb565Codec();
+        }
+        throw new IllegalArgumentException("Unknown codec " + id);
+    }
+
+    /**
+     * Decodes data[offset..offset+length) into a bitmap, or returns null if it can't be
+     * decoded. The bitmap may be reused by the next call, so it must be drawn before then, and
+     * must not be recycled.
+     */
+    public abstract Bitmap decode(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Recycles the bitmaps kept for reuse, once the codec is no longer needed.
+     */
+    public void release() {
+        for (Bitmap bm : mBitmaps) {
+            bm.recycle();
+        }
+        mBitmaps.clear();
+    }
+
+    /**
+     * Returns a mutable bitmap of the given size and config from an earlier decode, or null if
+     * there's none.
+     */
+    protected Bitmap findBitmap(int width, int height, Bitmap.Config config) {
+        for (int i = 0; i < mBitmaps.size(); i++) {
+            Bitmap bm = mBitmaps.get(i);
+            if (bm.getWidth() == width && bm.getHeight() == height
+                    && bm.getConfig() == config) {
+                mBitmaps.add(0, mBitmaps.remove(i));
+                return bm;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps a newly allocated bitmap for reuse, recycling the least recently used one if there
+     * are too many.
+     */
+    protected void addBitmap(Bitmap bm) {
+        mBitmaps.add(0, bm);
+        if (mBitmaps.size() > MAX_POOLED_BITMAPS) {
+            mBitmaps.remove(mBitmaps.size() - 1).recycle();
+        }
+    }
+
+    protected static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+}
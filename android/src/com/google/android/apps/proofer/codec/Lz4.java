@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.proofer.codec;
+
+import java.io.IOException;
+
+/**
+ * Decompresses the LZ4 block format.
+ */
+public class Lz4 {
+    private static final int MIN_MATCH = 4;
+
+    /**
+     * Decompresses src[srcOff..srcOff+srcLen) into dst at dstOff, writing at most dstLen bytes.
+     * Returns the decompressed length.
+     */
+    public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff,
+            int dstLen) throws IOException {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+
+        try {
+            while (ip < srcEnd) {
+                int token = src[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+
+                if (ip + literalLength > srcEnd || op + literalLength > dstEnd) {
+                    throw new IOException("Corrupt LZ4 block");
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+
+                if (ip >= srcEnd) {
+                    // The last sequence has no match.
+                    break;
+                }
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || op + matchLength > dstEnd) {
+                    throw new IOException("Corrupt LZ4 block");
+                }
+
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // Overlapping match, copy byte by byte.
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 block");
+        }
+
+        return op - dstOff;
+    }
+}
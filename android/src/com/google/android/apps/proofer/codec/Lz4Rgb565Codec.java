@@ -0,0 +1,56 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.proofer.codec;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+
+/**
+ * Decodes LZ4-compressed RGB565 frames: an int width, height and uncompressed length followed
+ * by the compressed block.
+ */
+public class Lz4Rgb565Codec extends Rgb565Codec {
+    private byte[] mPixels;
+
+    @Override
+    public Bitmap decode(byte[] data, int offset, int length) throws IOException {
+        int width = readInt(data, offset);
+        int height = readInt(data, offset + 4);
+        int pixelsLength = readInt(data, offset + 8);
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Invalid LZ4 frame " + width + "x" + height);
+        }
+        if (pixelsLength < 0 || pixelsLength > (long) width * height * 2) {
+            throw new IOException("Invalid LZ4 frame length " + pixelsLength);
+        }
+
+        if (mPixels == null || mPixels.length < pixelsLength) {
+            mPixels = new byte[pixelsLength];
+        }
+
+        int headerLength = HEADER_LENGTH + 4;
+        // A short block would otherwise leave the previous frame's pixels at the end.
+        int decompressed = Lz4.decompress(data, offset + headerLength, length - headerLength,
+                mPixels, 0, pixelsLength);
+        if (decompressed != pixelsLength) {
+            throw new IOException("LZ4 frame decompressed to " + decompressed + " bytes, not "
+                    + pixelsLength);
+        }
+        return toBitmap(width, height, mPixels, 0, pixelsLength);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.apps.proofer.codec;
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes uncompressed frames: an int width and height followed by little-endian RGB565
+ * pixels, which are copied straight into an RGB_565 bitmap.
+ */
+public class Rgb565Codec extends FrameCodec {
+    protected static final int HEADER_LENGTH = 8;
+
+    // Wraps the last pixel array copied from, to avoid wrapping it again for every frame.
+    private ByteBuffer mPixelBuffer;
+
+    @Override
+    public Bitmap decode(byte[] data, int offset, int length) throws IOException {
+        int width = readInt(data, offset);
+        int height = readInt(data, offset + 4);
+        return toBitmap(width, height, data, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+    }
+
+    protected Bitmap toBitmap(int width, int height, byte[] pixels, int offset, int length)
+            throws IOException {
+        if (width <= 0 || height <= 0 || length < (long) width * height * 2) {
+            throw new IOException("Invalid RGB565 frame " + width + "x" + height);
+        }
+
+        Bitmap bm = findBitmap(width, height, Bitmap.Config.RGB_565);
+        if (bm == null) {
+            bm = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+            addBitmap(bm);
+        }
+
+        if (mPixelBuffer == null || mPixelBuffer.array() != pixels) {
+            mPixelBuffer = ByteBuffer.wrap(pixels);
+        }
+        mPixelBuffer.clear();
+        mPixelBuffer.position(offset);
+        mPixelBuffer.limit(offset + width * height * 2);
+        bm.copyPixelsFromBuffer(mPixelBuffer);
+        return bm;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.benchmark;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Synthetic stand-ins for what gets mirrored, so benchmarks run headless and repeatably.
+ * Mockups are flat colors, hairlines and text-like runs that compress well; photos are smooth
+ * gradients with noise that don't.
+ */
+public class BenchmarkImages {
+    public static final String MOCKUP = "mockup";
+    public static final String PHOTO = "photo";
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Creates an image of the given kind and size, in the pixel format screen captures come in.
+     */
+    public static BufferedImage create(String kind, Dimension size) {
+        if (MOCKUP.equals(kind)) {
+            return createMockup(size.width, size.height);
+        } else if (PHOTO.equals(kind)) {
+            return createPhoto(size.width, size.height);
+        }
+        throw new IllegalArgumentException("Unknown image kind " + kind);
+    }
+
+    /**
+     * Parses a size such as "720x1280".
+     */
+    public static Dimension parseSize(String size) {
+        String[] parts = size.split("x");
+        return new Dimension(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    private static BufferedImage createMockup(int width, int height) {
+        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = bi.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Random random = new Random(1);
+
+        g.setColor(new Color(0xf5f5f5));
+        g.fillRect(0, 0, width, height);
+
+        // Status and action bars.
+        int unit = Math.max(1, width / 15);
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, unit / 2);
+        g.setColor(new Color(0x33b5e5));
+        g.fillRect(0, unit / 2, width, unit * 3 / 2);
+
+        // List rows with an icon, two lines of "text" and a divider.
+        int rowHeight = unit * 2;
+        for (int y = unit * 2; y < height; y += rowHeight) {
+            g.setColor(new Color(0x99cc00));
+            g.fillOval(unit / 2, y + unit / 2, unit, unit);
+
+            g.setColor(new Color(0x333333));
+            drawTextRun(g, random, unit * 2, y + unit / 2, width - unit * 3, unit / 3);
+            g.setColor(new Color(0x999999));
+            drawTextRun(g, random, unit * 2, y + unit, width - unit * 5, unit / 4);
+
+            g.setColor(new Color(0xdddddd));
+            g.drawLine(unit / 2, y + rowHeight - 1, width - unit / 2, y + rowHeight - 1);
+        }
+
+        g.dispose();
+        return bi;
+    }
+
+    private static void drawTextRun(Graphics2D g, Random random, int x, int y, int maxWidth,
+            int lineHeight) {
+        int end = x + maxWidth / 2 + random.nextInt(Math.max(1, maxWidth / 2));
+        while (x < end) {
+            int word = lineHeight * (2 + random.nextInt(5));
+            g.fillRoundRect(x, y, Math.min(word, end - x), lineHeight, 2, 2);
+            x += word + lineHeight;
+        }
+    }
+
+    private static BufferedImage createPhoto(int width, int height) {
+        BufferedImage bi = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double u = (double) x / width;
+                double v = (double) y / height;
+                int r = clamp(128 + 100 * Math.sin(u * 7 + v * 3) + random.nextGaussian() * 12);
+                int gr = clamp(128 + 100 * Math.sin(v * 5 - u * 2) + random.nextGaussian() * 12);
+                int b = clamp(128 + 100 * Math.cos(u * 4 * v * 6) + random.nextGaussian() * 12);
+                row[x] = (r << 16) | (gr << 8) | b;
+            }
+            bi.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return bi;
+    }
+
+    private static int clamp(double value) {
+        return Math.max(0, Math.min(255, (int) value));
+    }
+}
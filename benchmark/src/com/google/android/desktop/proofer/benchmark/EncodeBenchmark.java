@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.benchmark;
+
+import com.google.android.desktop.proofer.codec.FrameCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a device-sized frame with each codec, starting with the ImageIO PNG encoding every
+ * viewer supports.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class EncodeBenchmark {
+    @Param({"png", "jpeg", "rgb565", "rgb565-lz4"})
+    public String codec;
+
+    @Param({BenchmarkImages.MOCKUP, BenchmarkImages.PHOTO})
+    public String image;
+
+    @Param({"480x800", "720x1280", "1080x1920"})
+    public String deviceSize;
+
+    private FrameCodec frameCodec;
+    private BufferedImage frame;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        frameCodec = FrameCodec.forName(codec);
+        if (frameCodec == null) {
+            throw new IllegalArgumentException("Unknown codec " + codec);
+        }
+        frame = BenchmarkImages.create(image, BenchmarkImages.parseSize(deviceSize));
+        out = new ByteArrayOutputStream(frame.getWidth() * frame.getHeight() * 4);
+    }
+
+    /**
+     * Returns the encoded size, which also shows up in the results as a sanity check.
+     */
+    @Benchmark
+    public int encode() throws IOException {
+        out.reset();
+        frameCodec.encode(frame, out);
+        return out.size();
+    }
+}
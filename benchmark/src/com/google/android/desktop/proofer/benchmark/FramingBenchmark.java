@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.benchmark;
+
+import com.google.android.desktop.proofer.ChannelTransport;
+import com.google.android.desktop.proofer.FrameTransport;
+import com.google.android.desktop.proofer.Protocol;
+import com.google.android.desktop.proofer.StreamTransport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing frames through the desktop's transports to a local socket that discards them, and
+ * reading them back the way the viewer does, to see what the framing itself costs at various
+ * payload sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+    @State(Scope.Thread)
+    public static class WriteState {
+        @Param({"1024", "65536", "1048576"})
+        public int payloadSize;
+
+        @Param({"channel", "stream"})
+        public String transport;
+
+        private byte[] payload;
+        private final int[] header = new int[3];
+        private int seq;
+        private ServerSocket server;
+        private FrameTransport frameTransport;
+
+        @Setup
+        public void setUp() throws IOException {
+            payload = createPayload(payloadSize);
+
+            server = new ServerSocket(0);
+            Thread drainer = new Thread(new Runnable() {
+                public void run() {
+                    drain(server);
+                }
+            }, "Drainer");
+            drainer.setDaemon(true);
+            drainer.start();
+
+            if ("channel".equals(transport)) {
+                frameTransport = new ChannelTransport("localhost", server.getLocalPort(), 0);
+            } else if ("stream".equals(transport)) {
+                frameTransport = new StreamTransport("localhost", server.getLocalPort());
+            } else {
+                throw new IllegalArgumentException("Unknown transport " + transport);
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            frameTransport.close();
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReadState {
+        @Param({"1024", "65536", "1048576"})
+        public int payloadSize;
+
+        private ByteArrayInputStream framed;
+        private DataInputStream dis;
+        private byte[] readBuffer;
+
+        @Setup
+        public void setUp() throws IOException {
+            byte[] payload = createPayload(payloadSize);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(baos);
+            out.writeInt(Protocol.FRAME_IMAGE);
+            out.writeInt(1);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.flush();
+
+            // Same stream stack as the viewer. Each read consumes the whole frame, so the
+            // buffered stream is empty again when the underlying one is rewound.
+            framed = new ByteArrayInputStream(baos.toByteArray());
+            dis = new DataInputStream(new BufferedInputStream(framed));
+            readBuffer = new byte[payloadSize];
+        }
+    }
+
+    @Benchmark
+    public void write(WriteState state) throws IOException {
+        int[] header = state.header;
+        header[0] = Protocol.FRAME_IMAGE;
+        header[1] = ++state.seq;
+        header[2] = state.payloadSize;
+        state.frameTransport.write(header, header.length, state.payload, state.payloadSize);
+    }
+
+    @Benchmark
+    public int read(ReadState state) throws IOException {
+        state.framed.reset();
+        DataInputStream dis = state.dis;
+        dis.readInt(); // type
+        int frameSeq = dis.readInt();
+        int len = dis.readInt();
+        dis.readFully(state.readBuffer, 0, len);
+        return frameSeq;
+    }
+
+    private static byte[] createPayload(int size) {
+        byte[] payload = new byte[size];
+        new Random(1).nextBytes(payload);
+        return payload;
+    }
+
+    /**
+     * Accepts a single connection and discards everything sent over it until it's closed.
+     */
+    private static void drain(ServerSocket server) {
+        try {
+            Socket socket = server.accept();
+            try {
+                InputStream in = socket.getInputStream();
+                byte[] buffer = new byte[65536];
+                while (in.read(buffer) >= 0) {
+                    // Nothing to do with it.
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.benchmark;
+
+import com.google.android.desktop.proofer.FrameCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bilinear scaling of a mirrored region down to the device size, as done once per frame and
+ * device size by {@link FrameCache}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ScaleBenchmark {
+    @Param({BenchmarkImages.MOCKUP, BenchmarkImages.PHOTO})
+    public String image;
+
+    @Param({"480x800", "720x1280", "1080x1920"})
+    public String deviceSize;
+
+    // How much bigger the mirrored region is than the device, e.g. on a high density display.
+    @Param({"1.5"})
+    public double regionScale;
+
+    private BufferedImage source;
+    private Dimension target;
+
+    @Setup
+    public void setUp() {
+        target = BenchmarkImages.parseSize(deviceSize);
+        source = BenchmarkImages.create(image, new Dimension(
+                (int) (target.width * regionScale), (int) (target.height * regionScale)));
+    }
+
+    @Benchmark
+    public BufferedImage scale() {
+        return FrameCache.scale(source, target);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Talks to the adb server over its host protocol directly, rather than spawning an adb process
+ * per command. Each request is its length as 4 hex digits followed by the request itself, and
+ * the server replies OKAY, or FAIL followed by a length-prefixed message.
+ *
+ * <p>Throws {@link IOException} when the server can't be reached, in which case callers may
+ * fall back to running adb (which also starts the server), and {@link ProoferException} when
+ * the server refused the request.
+ */
+public class AdbClient {
+    public static final int DEFAULT_PORT = 5037;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final String CHARSET = "UTF-8";
+
+    private String host;
+    private int port;
+
+    public static interface DeviceListListener {
+        /**
+         * Called with the device list, in the same form as {@link AdbClient#devices()}.
+         */
+        public void onDeviceList(String devices);
+    }
+
+    public AdbClient() {
+        this("localhost", DEFAULT_PORT);
+    }
+
+    /**
+     * Creates a client for the adb server at the given address, e.g. a fake one.
+     */
+    public AdbClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Returns the server's device list, as "serial\tstate" lines.
+     */
+    public String devices() throws IOException, ProoferException {
+        Socket socket = connect();
+        try {
+            sendRequest(socket, "host:devices");
+            return readLengthPrefixed(new DataInputStream(socket.getInputStream()));
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Reports the device list to the listener right away and then every time it changes, for
+     * as long as the server stays up. Only returns by throwing.
+     */
+    public void trackDevices(DeviceListListener listener) throws IOException, ProoferException {
+        Socket socket = connect();
+        try {
+            sendRequest(socket, "host:track-devices");
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            while (true) {
+                listener.onDeviceList(readLengthPrefixed(in));
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Forwards the local socket spec (e.g. "tcp:7800") to the remote one on the device with
+     * the given serial, or on the only device if the serial is null.
+     */
+    public void forward(String serial, String local, String remote)
+            throws IOException, ProoferException {
+        Socket socket = connect();
+        try {
+            sendRequest(socket, hostPrefix(serial) + "forward:" + local + ";" + remote);
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Runs a shell command on the device with the given serial, or on the only device if the
+     * serial is null, and returns everything it printed.
+     */
+    public String shell(String serial, String command) throws IOException, ProoferException {
+        Socket socket = connect();
+        try {
+            sendRequest(socket, (serial != null)
+                    ? "host:transport:" + serial : "host:transport-any");
+            sendRequest(socket, "shell:" + command);
+
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toString(CHARSET);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String hostPrefix(String serial) {
+        return (serial != null) ? "host-serial:" + serial + ":" : "host:";
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Sends a request and waits for the server to accept it.
+     */
+    private void sendRequest(Socket socket, String request) throws IOException, ProoferException {
+        byte[] requestBytes = request.getBytes(CHARSET);
+        OutputStream out = socket.getOutputStream();
+        out.write(String.format("%04x", requestBytes.length).getBytes(CHARSET));
+        out.write(requestBytes);
+        out.flush();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] status = new byte[4];
+        in.readFully(status);
+        String statusString = new String(status, CHARSET);
+        if ("FAIL".equals(statusString)) {
+            throw new ProoferException("adb: " + readLengthPrefixed(in));
+        } else if (!"OKAY".equals(statusString)) {
+            throw new IOException("Unexpected adb server reply " + statusString);
+        }
+    }
+
+    private String readLengthPrefixed(DataInputStream in) throws IOException {
+        byte[] lengthBytes = new byte[4];
+        in.readFully(lengthBytes);
+        int length;
+        try {
+            length = Integer.parseInt(new String(lengthBytes, CHARSET), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed adb server reply length.");
+        }
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new String(payload, CHARSET);
+    }
+}
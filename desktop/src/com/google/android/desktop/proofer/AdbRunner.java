@@ -31,6 +31,7 @@ public class AdbRunner {
 
     private File adbPath;
     private boolean ready = false;
+    private AdbClient adbClient = new AdbClient();
 
     public AdbRunner() {
         try {
@@ -93,7 +94,111 @@ public class AdbRunner {
         return outFile;
     }
 
+    /**
+     * Runs an adb command against the device with the given serial, or against the only
+     * connected device if the serial is null. Commands the adb server understands directly are
+     * sent to it over its socket, the rest (and all of them if the server isn't running) are
+     * run by spawning adb.
+     */
+    public String adb(String serial, String[] args) throws ProoferException {
+        try {
+            String out = runOnServer(serial, args);
+            if (out != null) {
+                return out;
+            }
+        } catch (IOException e) {
+            if (debug) {
+                System.out.println("Couldn't reach the adb server, running adb: " + e);
+            }
+        }
+
+        if (serial == null) {
+            return exec(args);
+        }
+
+        String[] serialArgs = new String[args.length + 2];
+        serialArgs[0] = "-s";
+        serialArgs[1] = serial;
+        System.arraycopy(args, 0, serialArgs, 2, args.length);
+        return exec(serialArgs);
+    }
+
     public String adb(String[] args) throws ProoferException {
+        return adb(null, args);
+    }
+
+    /**
+     * Runs the command through {@link AdbClient}, returning its output, or null if it's not one
+     * that can be.
+     */
+    private String runOnServer(String serial, String[] args)
+            throws IOException, ProoferException {
+        if (args.length == 1 && "devices".equals(args[0])) {
+            return adbClient.devices();
+
+        } else if (args.length == 3 && "forward".equals(args[0])) {
+            adbClient.forward(serial, args[1], args[2]);
+            return "";
+
+        } else if (args.length == 2 && "uninstall".equals(args[0])) {
+            // pm reports failure on stdout alone, with no exit status over the shell service.
+            String out = adbClient.shell(serial, "pm uninstall " + args[1]);
+            checkPackageManagerResult(out);
+            return out;
+
+        } else if (args.length >= 2 && "shell".equals(args[0])) {
+            StringBuilder command = new StringBuilder();
+            for (int i = 1; i < args.length; i++) {
+                if (i > 1) {
+                    command.append(" ");
+                }
+                command.append(args[i]);
+            }
+            return adbClient.shell(serial, command.toString());
+        }
+
+        return null;
+    }
+
+    /**
+     * Throws unless pm's output reports success, e.g. "Failure [DELETE_FAILED_INTERNAL_ERROR]".
+     */
+    static void checkPackageManagerResult(String out) throws ProoferException {
+        for (String line : out.split("\n")) {
+            line = line.trim();
+            if (line.startsWith("Success")) {
+                return;
+            } else if (line.startsWith("Failure")) {
+                throw new ProoferException("Package manager reported " + line);
+            }
+        }
+        throw new ProoferException("Package manager reported neither success nor failure: "
+                + out.trim());
+    }
+
+    /**
+     * Returns the serials of all connected devices that are ready to use.
+     */
+    public List<String> getDevices() throws ProoferException {
+        return parseDevices(adb(new String[]{"devices"}));
+    }
+
+    /**
+     * Returns the serials of the ready devices in adb's device list output.
+     */
+    static List<String> parseDevices(String out) {
+        List<String> serials = new ArrayList<String>();
+        for (String line : out.split("\n")) {
+            // Lines look like "<serial>\t<state>", after a "List of devices attached" header.
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length == 2 && "device".equals(parts[1])) {
+                serials.add(parts[0]);
+            }
+        }
+        return serials;
+    }
+
+    private String exec(String[] args) throws ProoferException {
         if (debug) {
             StringBuilder sb = new StringBuilder();
             sb.append("Calling ADB: adb");
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Writes to the device over a {@link SocketChannel} with Nagle's algorithm off, sending each
+ * header from a reused direct buffer together with its payload in a single gathering write.
+ */
+public class ChannelTransport implements FrameTransport {
+    private static final int MAX_HEADER_INTS = 16;
+
+    private SocketChannel channel;
+    private DataInputStream input;
+
+    private final ByteBuffer headerBuffer = ByteBuffer.allocateDirect(MAX_HEADER_INTS * 4);
+    private final ByteBuffer[] buffers = new ByteBuffer[2];
+    private byte[] wrappedPayload;
+    private ByteBuffer payloadBuffer;
+
+    /**
+     * @param sendBufferSize The socket send buffer size to ask for, or 0 for the system default.
+     */
+    public ChannelTransport(String host, int port, int sendBufferSize) throws IOException {
+        channel = SocketChannel.open();
+        try {
+            channel.socket().setTcpNoDelay(true);
+            if (sendBufferSize > 0) {
+                channel.socket().setSendBufferSize(sendBufferSize);
+            }
+            channel.connect(new InetSocketAddress(host, port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        buffers[0] = headerBuffer;
+    }
+
+    public DataInputStream getInput() {
+        return input;
+    }
+
+    public void write(int[] header, int headerCount, byte[] payload, int payloadLength)
+            throws IOException {
+        headerBuffer.clear();
+        for (int i = 0; i < headerCount; i++) {
+            headerBuffer.putInt(header[i]);
+        }
+        headerBuffer.flip();
+
+        int count = 1;
+        if (payloadLength > 0) {
+            // Payloads mostly come from the same few reused buffers, so are the wrappers.
+            if (payload != wrappedPayload) {
+                wrappedPayload = payload;
+                payloadBuffer = ByteBuffer.wrap(payload);
+            }
+            payloadBuffer.clear();
+            payloadBuffer.limit(payloadLength);
+            buffers[1] = payloadBuffer;
+            count = 2;
+        }
+
+        while (headerBuffer.hasRemaining() || (count > 1 && payloadBuffer.hasRemaining())) {
+            channel.write(buffers, 0, count);
+        }
+    }
+
+    public String getRemoteAddress() {
+        return String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
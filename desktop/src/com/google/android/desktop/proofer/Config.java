@@ -20,4 +20,17 @@ public class Config {
     public static final String ANDROID_APP_PACKAGE_NAME = "com.google.android.apps.proofer";
     public static final int PORT_LOCAL = 6800;
     public static final int PORT_DEVICE = 7800;
+    public static final int STREAM_TARGET_FPS = 30;
+    public static final int CAPTURE_FPS = 30;
+    // Enough for a couple of full uncompressed frames, so writes rarely block mid-frame.
+    public static final int SEND_BUFFER_SIZE = 4 * 1024 * 1024;
+    // How long a frame may take from being written to being decoded on the device before
+    // adaptive devices get lower quality frames.
+    public static final int LATENCY_BUDGET_MILLIS = 100;
+    // Files with more pixels than this are decoded a tile at a time, as needed.
+    public static final long TILED_IMAGE_MIN_PIXELS = 8 * 1024 * 1024;
+    public static final long TILE_CACHE_BYTES = 64 * 1024 * 1024;
+    // Memory for slideshow slides: decoded, and scaled and encoded for each device size.
+    public static final long SLIDE_CACHE_BYTES = 128 * 1024 * 1024;
+    public static final long SLIDE_FRAME_CACHE_BYTES = 96 * 1024 * 1024;
 }
@@ -29,20 +29,20 @@ import java.awt.dnd.DropTargetDropEvent;
 import java.awt.dnd.DropTargetListener;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 
 public class ControllerForm
@@ -57,6 +57,11 @@ public class ControllerForm
     private JButton sourceButton;
     private JRadioButton localFileSourceButton;
     private JRadioButton screenCaptureSourceButton;
+    private JRadioButton folderSourceButton;
+    private JCheckBox actualSizeToggle;
+    private JCheckBox statsToggle;
+    private JLabel statsLabel;
+    private Timer statsTimer;
 
     private RegionSelector regionSelector;
     private Proofer proofer;
@@ -143,6 +148,8 @@ public class ControllerForm
         localFileSourceButton.addActionListener(sourceTypeChangeListener);
         screenCaptureSourceButton.setActionCommand(Proofer.SOURCE_TYPE_SCREEN);
         screenCaptureSourceButton.addActionListener(sourceTypeChangeListener);
+        folderSourceButton.setActionCommand(Proofer.SOURCE_TYPE_FOLDER);
+        folderSourceButton.addActionListener(sourceTypeChangeListener);
 
         sourceButton.addActionListener(new ActionListener() {
             public void actionPerformed(ActionEvent actionEvent) {
@@ -165,15 +172,98 @@ public class ControllerForm
                     dialog.setVisible(true);
                     loadFile(new File(dialog.getDirectory(), dialog.getFile()));
 
+                } else if (Proofer.SOURCE_TYPE_FOLDER.equals(proofer.getSourceType())) {
+                    // The native file dialog can't pick folders everywhere.
+                    JFileChooser chooser = new JFileChooser();
+                    chooser.setDialogTitle("Select Mockup Folder");
+                    chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+                    if (chooser.showOpenDialog(frame) == JFileChooser.APPROVE_OPTION) {
+                        loadSlideshow(Slideshow.listImages(chooser.getSelectedFile()));
+                    }
+
                 } else {
                     regionSelector.showWindow(!regionSelector.isVisible());
                 }
             }
         });
 
+        actualSizeToggle.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                proofer.setActualSize(actualSizeToggle.isSelected());
+            }
+        });
+
+        statsTimer = new Timer(1000, new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                updateStatsUI();
+            }
+        });
+        statsToggle.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                boolean show = statsToggle.isSelected();
+                statsLabel.setVisible(show);
+                if (show) {
+                    updateStatsUI();
+                    statsTimer.start();
+                } else {
+                    statsTimer.stop();
+                }
+                frame.pack();
+            }
+        });
+
+        setupSlideKeys();
+
         new DropTarget(frame, fileDropListener);
     }
 
+    /**
+     * Binds the arrow and page keys to stepping through the slideshow while the window has
+     * focus.
+     */
+    private void setupSlideKeys() {
+        InputMap inputMap = contentPanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0), "nextSlide");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_DOWN, 0), "nextSlide");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, 0), "previousSlide");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_UP, 0), "previousSlide");
+        contentPanel.getActionMap().put("nextSlide", new SlideAction(1));
+        contentPanel.getActionMap().put("previousSlide", new SlideAction(-1));
+    }
+
+    private class SlideAction extends AbstractAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int delta;
+
+        private SlideAction(int delta) {
+            this.delta = delta;
+        }
+
+        public void actionPerformed(ActionEvent actionEvent) {
+            if (Proofer.SOURCE_TYPE_FOLDER.equals(proofer.getSourceType())) {
+                proofer.navigate(delta);
+            }
+        }
+    }
+
+    private void updateStatsUI() {
+        PipelineStats stats = proofer.getStats();
+        StringBuilder sb = new StringBuilder();
+        sb.append("<html><table cellpadding=0 cellspacing=0>");
+        sb.append(String.format("<tr><td>Frames/sec</td><td align=right colspan=2>%.1f</td></tr>",
+                stats.getFramesPerSecond()));
+        sb.append("<tr><td></td><td align=right>p50</td><td align=right>p99</td></tr>");
+        for (PipelineStats.Stage stage : PipelineStats.Stage.values()) {
+            sb.append(String.format(
+                    "<tr><td>%s</td><td align=right>%.1f</td><td align=right>%.1f</td></tr>",
+                    stage, stats.getPercentileMillis(stage, 0.5),
+                    stats.getPercentileMillis(stage, 0.99)));
+        }
+        sb.append("</table>Times in msec</html>");
+        statsLabel.setText(sb.toString());
+    }
+
     private DropTargetListener fileDropListener = new DropTargetAdapter() {
         @Override
         public void drop(DropTargetDropEvent event) {
@@ -185,7 +275,12 @@ public class ControllerForm
                 try {
                     if (flavor.isFlavorJavaFileListType()) {
                         List<File> files = (List<File>) transferable.getTransferData(flavor);
-                        if (files.size() > 0) {
+                        if (files.size() > 1 || (files.size() == 1 && files.get(0).isDirectory())) {
+                            folderSourceButton.setSelected(true);
+                            switchSourceType(Proofer.SOURCE_TYPE_FOLDER);
+                            loadSlideshow(getDroppedSlides(files));
+                            event.dropComplete(true);
+                        } else if (files.size() > 0) {
                             File file = files.get(0);
                             localFileSourceButton.setSelected(true);
                             switchSourceType(Proofer.SOURCE_TYPE_FILE);
@@ -207,16 +302,43 @@ public class ControllerForm
         }
     };
 
+    /**
+     * Returns the images among the dropped files, in the order dropped, or those in the folder
+     * if a single one was dropped.
+     */
+    private List<File> getDroppedSlides(List<File> files) {
+        if (files.size() == 1) {
+            return Slideshow.listImages(files.get(0));
+        }
+
+        List<File> slides = new ArrayList<File>();
+        for (File file : files) {
+            if (file.isFile() && Slideshow.isImage(file)) {
+                slides.add(file);
+            }
+        }
+        return slides;
+    }
+
+    private void loadSlideshow(List<File> files) {
+        try {
+            proofer.loadSlideshow(files);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame,
+                    "Error loading images.", "Android Design Preview", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        updateSourceButtonUI();
+    }
+
     private void loadFile(File file) {
-        BufferedImage bi;
         try {
-            bi = ImageIO.read(file);
+            proofer.loadFile(file);
         } catch (IOException e) {
             JOptionPane.showMessageDialog(frame,
                     "Error loading image.", "Android Design Preview", JOptionPane.ERROR_MESSAGE);
             return;
         }
-        proofer.setImage(file, bi);
         updateSourceButtonUI();
     }
 
@@ -295,12 +417,15 @@ public class ControllerForm
     }
 
     public void onStateChange(Proofer.State newState) {
+        int deviceCount = proofer.getDeviceCount();
+        String connected = (deviceCount > 1)
+                ? "Connected (" + deviceCount + " devices)" : "Connected";
         switch (newState) {
             case ConnectedActive:
-                statusLabel.setText("Connected, active");
+                statusLabel.setText(connected + ", active");
                 break;
             case ConnectedIdle:
-                statusLabel.setText("Connected, inactive");
+                statusLabel.setText(connected + ", inactive");
                 break;
             case Disconnected:
                 statusLabel.setText("Disconnected");
@@ -315,6 +440,18 @@ public class ControllerForm
         regionSelector.requestDeviceSize(size);
     }
 
+    public void onDeviceConnected(String serial, long reconnectMillis) {
+        statusLabel.setToolTipText("Last connected in " + reconnectMillis + " ms");
+    }
+
+    public void onSlideChanged(int index, int count) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                updateSourceButtonUI();
+            }
+        });
+    }
+
     public void onRegionChanged(Rectangle region) {
         if (proofer != null) {
             proofer.setRequestedSourceRegion(region);
@@ -337,6 +474,17 @@ public class ControllerForm
                 sourceButton.setMnemonic('C');
             }
 
+        } else if (Proofer.SOURCE_TYPE_FOLDER.equals(sourceType)) {
+            Slideshow slideshow = proofer.getSlideshow();
+            File currentFile = proofer.getFile();
+            if (slideshow != null && currentFile != null) {
+                sourceButton.setText(currentFile.getName() + " (" + (slideshow.getIndex() + 1)
+                        + "/" + slideshow.getCount() + ")");
+            } else {
+                sourceButton.setText("Choose Folder");
+                sourceButton.setMnemonic('C');
+            }
+
         } else if (Proofer.SOURCE_TYPE_SCREEN.equals(sourceType)) {
             if (regionSelector.isVisible()) {
                 sourceButton.setText("Close Mirror Region Window");
@@ -370,8 +518,8 @@ public class ControllerForm
         GridBagConstraints gbc;
         gbc = new GridBagConstraints();
         gbc.gridx = 0;
-        gbc.gridy = 5;
-        gbc.gridwidth = 3;
+        gbc.gridy = 6;
+        gbc.gridwidth = 4;
         gbc.weighty = 1.0;
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(0, 8, 8, 8);
@@ -383,16 +531,29 @@ public class ControllerForm
         gbc = new GridBagConstraints();
         gbc.gridx = 0;
         gbc.gridy = 3;
-        gbc.gridwidth = 3;
+        gbc.gridwidth = 4;
         gbc.weighty = 1.0;
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(0, 8, 0, 8);
         contentPanel.add(sourceButton, gbc);
-        final JSeparator separator1 = new JSeparator();
+        actualSizeToggle = new JCheckBox();
+        actualSizeToggle.setText("Actual Size (1:1)");
+        actualSizeToggle.setMnemonic('A');
+        actualSizeToggle.setDisplayedMnemonicIndex(0);
+        actualSizeToggle.setToolTipText(
+                "Show the source unscaled, panning around it from the device");
         gbc = new GridBagConstraints();
         gbc.gridx = 0;
         gbc.gridy = 4;
-        gbc.gridwidth = 3;
+        gbc.gridwidth = 4;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(4, 8, 0, 8);
+        contentPanel.add(actualSizeToggle, gbc);
+        final JSeparator separator1 = new JSeparator();
+        gbc = new GridBagConstraints();
+        gbc.gridx = 0;
+        gbc.gridy = 5;
+        gbc.gridwidth = 4;
         gbc.fill = GridBagConstraints.BOTH;
         gbc.insets = new Insets(4, 0, 4, 0);
         contentPanel.add(separator1, gbc);
@@ -400,7 +561,7 @@ public class ControllerForm
         gbc = new GridBagConstraints();
         gbc.gridx = 0;
         gbc.gridy = 1;
-        gbc.gridwidth = 3;
+        gbc.gridwidth = 4;
         gbc.fill = GridBagConstraints.BOTH;
         gbc.insets = new Insets(4, 0, 4, 0);
         contentPanel.add(separator2, gbc);
@@ -422,10 +583,20 @@ public class ControllerForm
         gbc = new GridBagConstraints();
         gbc.gridx = 2;
         gbc.gridy = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(0, 0, 4, 0);
+        contentPanel.add(localFileSourceButton, gbc);
+        folderSourceButton = new JRadioButton();
+        folderSourceButton.setText("Folder");
+        folderSourceButton.setMnemonic('O');
+        folderSourceButton.setDisplayedMnemonicIndex(1);
+        gbc = new GridBagConstraints();
+        gbc.gridx = 3;
+        gbc.gridy = 2;
         gbc.weightx = 1.0;
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(0, 0, 4, 8);
-        contentPanel.add(localFileSourceButton, gbc);
+        contentPanel.add(folderSourceButton, gbc);
         final JLabel label1 = new JLabel();
         label1.setForeground(new Color(-10066330));
         label1.setText("Source:");
@@ -452,16 +623,40 @@ public class ControllerForm
         gbc = new GridBagConstraints();
         gbc.gridx = 1;
         gbc.gridy = 0;
-        gbc.gridwidth = 2;
+        gbc.gridwidth = 3;
         gbc.weightx = 1.0;
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(8, 0, 0, 0);
         contentPanel.add(statusLabel, gbc);
+        statsToggle = new JCheckBox();
+        statsToggle.setText("Show Statistics");
+        statsToggle.setMnemonic('T');
+        statsToggle.setDisplayedMnemonicIndex(6);
+        gbc = new GridBagConstraints();
+        gbc.gridx = 0;
+        gbc.gridy = 7;
+        gbc.gridwidth = 4;
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(0, 8, 8, 8);
+        contentPanel.add(statsToggle, gbc);
+        statsLabel = new JLabel();
+        statsLabel.setFont(new Font(statsLabel.getFont().getName(), statsLabel.getFont().getStyle(),
+                10));
+        statsLabel.setText("");
+        statsLabel.setVisible(false);
+        gbc = new GridBagConstraints();
+        gbc.gridx = 0;
+        gbc.gridy = 8;
+        gbc.gridwidth = 4;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.insets = new Insets(0, 8, 8, 8);
+        contentPanel.add(statsLabel, gbc);
         ButtonGroup buttonGroup;
         buttonGroup = new ButtonGroup();
         buttonGroup.add(localFileSourceButton);
         buttonGroup.add(screenCaptureSourceButton);
         buttonGroup.add(localFileSourceButton);
+        buttonGroup.add(folderSourceButton);
     }
 
     /**
@@ -0,0 +1,783 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import com.google.android.desktop.proofer.codec.FrameCodec;
+import com.google.android.desktop.proofer.codec.JpegCodec;
+import com.google.android.desktop.proofer.codec.PngCodec;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Serves frames to a single device, on its own thread and over its own forwarded local port.
+ * Sources, captures and the scaled and encoded frames in the {@link FrameCache} are shared
+ * with every other session of the same {@link Proofer}.
+ */
+public class DeviceSession {
+    private static final long MIN_RETRY_INTERVAL_MILLIS = 50;
+    private static final long MAX_RETRY_INTERVAL_MILLIS = 1000;
+
+    // What legacy viewers get when there's no image yet.
+    private static final byte[] LEGACY_NO_IMAGE = new byte[]{0};
+
+    // Comfortably more than the number of frames ever in flight.
+    private static final int FRAME_START_SLOTS = 8;
+
+    private boolean debug = Util.isDebug();
+
+    private Proofer proofer;
+    private String serial;
+    private int localPort;
+
+    private Thread thread;
+    private volatile boolean stopped;
+    private volatile FrameTransport connection;
+    private volatile Proofer.State state = Proofer.State.Unknown;
+
+    // When the session started waiting for the device to request frames, for measuring how long
+    // reconnecting takes.
+    private long waitingSinceNanos = System.nanoTime();
+    private boolean hadActivity;
+
+    private volatile Dimension currentDeviceSize = new Dimension();
+    // Where the device is panned to, in device pixels.
+    private volatile Point currentOffset = new Point();
+    private volatile int lastAckedSeq;
+
+    // Also read by the slideshow's prefetch thread.
+    private volatile FrameCodec codec;
+    private int supportedCodecs;
+    private boolean tilesEnabled;
+    // Null unless the device takes adaptive frames.
+    private QualityController quality;
+    private JpegCodec degradedCodec;
+    private FrameBuffer degradedBuffer = new FrameBuffer();
+    // The quality level of the full frame being sent, or -1 if it isn't a full frame made at
+    // a level.
+    private int sendingLevel;
+    private TileDiffer tileDiffer = new TileDiffer();
+    private FrameBuffer tilesBuffer = new FrameBuffer();
+    private FrameBuffer tileBuffer = new FrameBuffer();
+    private DataOutputStream tilesOut = new DataOutputStream(tilesBuffer);
+    // Scratch space for message headers, only touched by the thread writing to the device.
+    private final int[] header = new int[6];
+
+    // What the last frame sent on this connection was made from.
+    private Dimension lastSentSize;
+    private Rectangle lastSentRegion;
+    private BufferedImage lastSentFile;
+    private long lastSentFingerprint;
+    // Whether the device now shows exactly what was last sent.
+    private boolean lastSentLossless;
+    // Whether the device's frame is a degraded full frame, possibly with tiles patched onto it.
+    private boolean lastSentDegraded;
+
+    // When work on each recent frame started, indexed by seq, for end-to-end timing.
+    private final AtomicLongArray frameStartNanos = new AtomicLongArray(FRAME_START_SLOTS);
+    private volatile long lastDisplayNanos;
+
+    private final Object streamLock = new Object();
+    private boolean streamClosed;
+
+    /**
+     * @param serial The adb serial of the device, or null to rely on the local port having been
+     *               forwarded by hand.
+     */
+    public DeviceSession(Proofer proofer, String serial, int localPort) {
+        this.proofer = proofer;
+        this.serial = serial;
+        this.localPort = localPort;
+    }
+
+    public String getSerial() {
+        return serial;
+    }
+
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    public Proofer.State getState() {
+        return state;
+    }
+
+    public void start() {
+        thread = new Thread(new Runnable() {
+            public void run() {
+                connectionLoop();
+            }
+        }, "DeviceSession " + ((serial != null) ? serial : localPort));
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+        closeTransport();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void connectionLoop() {
+        boolean needsForwarding = (serial != null);
+        long retryIntervalMillis = MIN_RETRY_INTERVAL_MILLIS;
+        while (!stopped) {
+            try {
+                if (needsForwarding) {
+                    proofer.setupPortForwarding(serial, localPort);
+                    needsForwarding = false;
+                }
+                connectAndWaitForRequests();
+            } catch (Proofer.CannotConnectException e) {
+                // Can't connect to device, try re-setting up port forwarding.
+                needsForwarding = (serial != null);
+            } catch (ProoferException e) {
+                // If we get an error here, we're disconnected.
+                updateState(Proofer.State.Disconnected);
+            }
+
+            // Retry quickly after a connection that was in use, since the app is likely just
+            // restarting, and back off while the app isn't running.
+            if (hadActivity) {
+                hadActivity = false;
+                retryIntervalMillis = MIN_RETRY_INTERVAL_MILLIS;
+            } else {
+                retryIntervalMillis = Math.min(retryIntervalMillis * 2,
+                        MAX_RETRY_INTERVAL_MILLIS);
+            }
+
+            try {
+                Thread.sleep(retryIntervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void updateState(Proofer.State newState) {
+        if (state != newState) {
+            if (newState == Proofer.State.ConnectedActive) {
+                hadActivity = true;
+                proofer.onSessionConnected(this,
+                        (System.nanoTime() - waitingSinceNanos) / 1000000);
+            } else if (state == Proofer.State.ConnectedActive) {
+                waitingSinceNanos = System.nanoTime();
+            }
+            state = newState;
+            proofer.onSessionStateChanged(this);
+        }
+    }
+
+    private void closeTransport() {
+        FrameTransport t = connection;
+        if (t != null) {
+            t.close();
+        }
+    }
+
+    private FrameTransport openTransport() throws IOException {
+        if ("stream".equals(Util.getTransportName())) {
+            return new StreamTransport("localhost", localPort);
+        }
+        return new ChannelTransport("localhost", localPort, Util.getSendBufferSize());
+    }
+
+    private void connectAndWaitForRequests() throws Proofer.CannotConnectException {
+        // Establish the connection.
+        try {
+            connection = openTransport();
+        } catch (IOException e) {
+            throw new Proofer.CannotConnectException(e);
+        }
+
+        if (debug) {
+            System.out.println("Local socket established " + connection.getRemoteAddress());
+        }
+
+        // Wait for requests.
+        try {
+            FrameTransport transport = connection;
+            DataInputStream dis = transport.getInput();
+
+            // Newer viewers open with a hello, older ones go straight to their first request.
+            int first = dis.readInt();
+            if (first == Protocol.HELLO_MAGIC) {
+                serveNegotiated(dis, transport);
+            } else {
+                codec = new PngCodec();
+                quality = null;
+                serveLegacy(dis, transport, first);
+            }
+        } catch (IOException e) {
+            // If we're not "connected", this just means we haven't received any requests yet
+            // on the socket, so there's no error to log.
+            if (debug) {
+                System.out.println("No activity.");
+            }
+        } finally {
+            closeTransport();
+        }
+
+        // No (or no more) requests.
+        updateState(Proofer.State.ConnectedIdle);
+    }
+
+    /**
+     * Serves viewers that predate the hello. The first request's x offset has already been
+     * consumed to detect the protocol.
+     */
+    private void serveLegacy(DataInputStream dis, FrameTransport transport, int x)
+            throws IOException {
+        while (true) {
+            // Try processing a request.
+            onViewport(x, dis.readInt(), dis.readInt(), dis.readInt());
+
+            // If we reach this point, we didn't hit an IOException and we've received
+            // a request from the device.
+            updateState(Proofer.State.ConnectedActive);
+
+            if (hasValidDeviceSize()) {
+                BufferedImage source = acquireSource();
+                FrameCache.Entry frame = (source != null)
+                        ? proofer.getFrameCache().get(source,
+                                getSourceRegion(source, currentDeviceSize), currentDeviceSize)
+                        : null;
+                try {
+                    byte[] out = LEGACY_NO_IMAGE;
+                    int len = out.length;
+                    if (frame != null) {
+                        FrameBuffer encoded = frame.getEncoded(codec);
+                        out = encoded.getData();
+                        len = encoded.size();
+                    }
+
+                    if (debug) {
+                        System.out.println("Writing " + len + " bytes.");
+                    }
+
+                    long before = System.nanoTime();
+                    header[0] = len;
+                    transport.write(header, 1, out, len);
+                    proofer.getStats().record(PipelineStats.Stage.Write,
+                            System.nanoTime() - before);
+                } finally {
+                    if (frame != null) {
+                        frame.release();
+                    }
+                }
+            }
+
+            // This loop will exit only when an IOException is thrown, indicating there's
+            // nothing further to read.
+            x = dis.readInt();
+        }
+    }
+
+    private void serveNegotiated(DataInputStream dis, FrameTransport transport)
+            throws IOException {
+        int version = dis.readInt();
+        int flags = dis.readInt();
+        boolean stream = (flags & Protocol.FLAG_STREAMING) != 0;
+        supportedCodecs = dis.readInt();
+        tilesEnabled = (flags & Protocol.FLAG_TILES) != 0;
+        tileDiffer.reset();
+        lastSentSize = null;
+        lastSentLossless = false;
+        lastSentDegraded = false;
+        quality = ((flags & Protocol.FLAG_ADAPTIVE) != 0 && Util.isAdaptive())
+                ? new QualityController(Config.LATENCY_BUDGET_MILLIS) : null;
+
+        codec = FrameCodec.forName(proofer.getCodecName());
+        if (codec == null || (supportedCodecs & (1 << codec.getId())) == 0) {
+            codec = new PngCodec();
+        }
+
+        if (debug) {
+            System.out.println("Device protocol version " + version
+                    + (stream ? ", streaming" : ", request/reply") + ", using " + codec
+                    + ((quality != null) ? ", adaptive" : ""));
+        }
+
+        header[0] = Protocol.HELLO_MAGIC;
+        header[1] = Protocol.VERSION;
+        header[2] = stream ? Protocol.MODE_STREAM : Protocol.MODE_REQUEST_REPLY;
+        header[3] = Config.STREAM_TARGET_FPS;
+        header[4] = codec.getId();
+        transport.write(header, 5, null, 0);
+
+        if (stream) {
+            serveStream(dis, transport);
+            return;
+        }
+
+        int seq = 0;
+        while (true) {
+            if (readMessage(dis) == Protocol.MSG_REQUEST) {
+                updateState(Proofer.State.ConnectedActive);
+                sendFrame(transport, ++seq);
+            }
+        }
+    }
+
+    /**
+     * Pushes frames at {@link Config#STREAM_TARGET_FPS}, or whatever lower rate the
+     * {@link QualityController} settles on, for as long as the device keeps
+     * acknowledging them, so that capture and encoding of the next frame overlap with the
+     * transfer and decoding of the previous ones. Device messages are handled on a separate
+     * reader thread.
+     */
+    private void serveStream(final DataInputStream dis, FrameTransport transport)
+            throws IOException {
+        streamClosed = false;
+        lastAckedSeq = 0;
+
+        Thread reader = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        readMessage(dis);
+                        synchronized (streamLock) {
+                            streamLock.notifyAll();
+                        }
+                    }
+                } catch (IOException e) {
+                    synchronized (streamLock) {
+                        streamClosed = true;
+                        streamLock.notifyAll();
+                    }
+                }
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+
+        long nextFrameTime = 0;
+        int seq = 0;
+
+        try {
+            while (true) {
+                synchronized (streamLock) {
+                    while (!streamClosed
+                            && seq - lastAckedSeq >= Protocol.MAX_FRAMES_IN_FLIGHT) {
+                        streamLock.wait();
+                    }
+
+                    if (streamClosed) {
+                        throw new IOException("Device closed the stream.");
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (nextFrameTime > now) {
+                    Thread.sleep(nextFrameTime - now);
+                    now = nextFrameTime;
+                }
+                int fps = (quality != null)
+                        ? quality.getTargetFps(Config.STREAM_TARGET_FPS)
+                        : Config.STREAM_TARGET_FPS;
+                nextFrameTime = now + 1000 / fps;
+
+                // Keep sending (empty) frames until the device has a size, so that it has
+                // something to acknowledge along with its viewport updates.
+                updateState(Proofer.State.ConnectedActive);
+                sendFrame(transport, ++seq);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while streaming.");
+        } finally {
+            // Unblocks the reader thread.
+            closeTransport();
+        }
+    }
+
+    private int readMessage(DataInputStream dis) throws IOException {
+        int type = dis.readInt();
+        switch (type) {
+            case Protocol.MSG_REQUEST:
+            case Protocol.MSG_VIEWPORT:
+                onViewport(dis.readInt(), dis.readInt(), dis.readInt(), dis.readInt());
+                break;
+
+            case Protocol.MSG_ACK:
+                lastAckedSeq = dis.readInt();
+                break;
+
+            case Protocol.MSG_TIMINGS:
+                onTimings(dis.readInt(), dis.readInt(), dis.readInt());
+                break;
+
+            case Protocol.MSG_NAVIGATE:
+                proofer.navigate(dis.readInt());
+                break;
+
+            default:
+                throw new IOException("Unknown message type " + type);
+        }
+        return type;
+    }
+
+    private void writeFrame(FrameTransport transport, int type, int seq, byte[] out, int len)
+            throws IOException {
+        writeFrame(transport, type, seq, 0, out, len);
+    }
+
+    /**
+     * Writes a frame whose payload starts with the given number of ints, already placed in
+     * {@link #header} after the frame's own three.
+     */
+    private void writeFrame(FrameTransport transport, int type, int seq, int prefixInts,
+            byte[] out, int len) throws IOException {
+        int payloadLength = prefixInts * 4 + len;
+        if (debug) {
+            System.out.println("Writing frame " + seq + " (type " + type + "), "
+                    + payloadLength + " bytes.");
+        }
+
+        long before = System.nanoTime();
+        header[0] = type;
+        header[1] = seq;
+        header[2] = payloadLength;
+        transport.write(header, 3 + prefixInts, out, len);
+        proofer.getStats().record(PipelineStats.Stage.Write, System.nanoTime() - before);
+        if (type != Protocol.FRAME_EMPTY) {
+            proofer.getStats().recordFrame();
+        }
+        if (quality != null && type != Protocol.FRAME_EMPTY && type != Protocol.FRAME_UNCHANGED) {
+            quality.onFrameSent(seq, 12 + payloadLength, sendingLevel);
+        }
+
+        if (debug && seq % 100 == 0) {
+            System.out.println("Pipeline: " + proofer.getStats());
+        }
+    }
+
+    private void onTimings(int seq, int decodeMicros, int displayMicros) {
+        PipelineStats stats = proofer.getStats();
+        if (displayMicros >= 0) {
+            lastDisplayNanos = displayMicros * 1000L;
+            stats.record(PipelineStats.Stage.Display, lastDisplayNanos);
+        }
+
+        if (decodeMicros >= 0) {
+            stats.record(PipelineStats.Stage.Decode, decodeMicros * 1000L);
+            long startNanos = frameStartNanos.get(seq % FRAME_START_SLOTS);
+            stats.record(PipelineStats.Stage.EndToEnd,
+                    System.nanoTime() - startNanos + lastDisplayNanos);
+
+            QualityController q = quality;
+            if (q != null && q.onFrameDecoded(seq) && debug) {
+                System.out.println("Adapted to " + q);
+            }
+        }
+    }
+
+    private void onViewport(int x, int y, int width, int height) {
+        currentOffset = new Point(x, y);
+        Dimension deviceSize = new Dimension(width, height);
+        if (!deviceSize.equals(currentDeviceSize)) {
+            if (debug) {
+                System.out.println("Got device size: " + width + "x" + height);
+            }
+            currentDeviceSize = deviceSize;
+            proofer.onSessionDeviceSizeChanged(this, deviceSize);
+        }
+    }
+
+    /**
+     * Returns the region of the source to show at its actual size, or null to scale all of it
+     * to the device. The region starts where the device is panned to, but stays within the
+     * source.
+     */
+    private Rectangle getSourceRegion(BufferedImage source, Dimension deviceSize) {
+        return getSourceRegion(source.getWidth(), source.getHeight(), deviceSize);
+    }
+
+    private Rectangle getSourceRegion(int sourceWidth, int sourceHeight, Dimension deviceSize) {
+        if (!proofer.isActualSize()) {
+            return null;
+        }
+
+        Point offset = currentOffset;
+        int width = Math.min(deviceSize.width, sourceWidth);
+        int height = Math.min(deviceSize.height, sourceHeight);
+        return new Rectangle(
+                Math.max(0, Math.min(offset.x, sourceWidth - width)),
+                Math.max(0, Math.min(offset.y, sourceHeight - height)),
+                width, height);
+    }
+
+    private boolean hasValidDeviceSize() {
+        Dimension deviceSize = currentDeviceSize;
+        return deviceSize.width > 1 && deviceSize.height > 1;
+    }
+
+    /**
+     * Captures the screen or takes the loaded file, returning null if there's nothing to
+     * show yet.
+     */
+    private BufferedImage acquireSource() {
+        if (proofer.isFileSourceType()) {
+            return acquireFileSource(currentDeviceSize);
+        }
+
+        ScreenCapturer.CapturedFrame frame = proofer.getScreenCapturer().getLatestFrame();
+        return (frame != null) ? frame.image : null;
+    }
+
+    /**
+     * Returns the loaded file or, for a large one, just the part of it needed for the given
+     * device size: the region it's panned to at actual size, or else a reduced resolution
+     * version to scale down. Returns null if there's no file or it can't be decoded.
+     */
+    private BufferedImage acquireFileSource(Dimension deviceSize) {
+        while (true) {
+            BufferedImage image = proofer.getImage();
+            TiledImage tiled = (image == null) ? proofer.getTiledImage() : null;
+            if (tiled == null) {
+                return image;
+            }
+
+            Rectangle region = getSourceRegion(tiled.getWidth(), tiled.getHeight(), deviceSize);
+            try {
+                return (region != null) ? tiled.getRegion(region) : tiled.getPreview(deviceSize);
+            } catch (IOException e) {
+                if (tiled.isClosed() && tiled != proofer.getTiledImage()) {
+                    // Replaced and closed while in use, so use whatever replaced it.
+                    continue;
+                }
+                if (debug) {
+                    e.printStackTrace();
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Scales and encodes the given slide the way this device will be sent it, so that stepping
+     * onto it costs no more than the write. Called on the slideshow's prefetch thread, so uses
+     * its own codec instance.
+     */
+    void prefetch(BufferedImage slide) {
+        FrameCodec connectionCodec = codec;
+        Dimension deviceSize = currentDeviceSize;
+        if (state != Proofer.State.ConnectedActive || connectionCodec == null
+                || !hasValidDeviceSize()) {
+            return;
+        }
+
+        FrameCodec prefetchCodec = FrameCodec.forName(connectionCodec.getName());
+        FrameCache.Entry frame = proofer.getFrameCache().get(
+                slide, getSourceRegion(slide, deviceSize), deviceSize);
+        try {
+            frame.getEncoded(prefetchCodec);
+        } catch (IOException e) {
+            if (debug) {
+                e.printStackTrace();
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Encodes only the given tiles of the image into {@link #tilesBuffer}, each preceded by its
+     * position so the device can patch it into the previous frame.
+     */
+    private void encodeTiles(BufferedImage bi, List<Rectangle> tiles) throws IOException {
+        long before = System.nanoTime();
+        tilesBuffer.reset();
+        tilesOut.writeInt(tiles.size());
+        for (Rectangle tile : tiles) {
+            tileBuffer.reset();
+            codec.encode(bi.getSubimage(tile.x, tile.y, tile.width, tile.height), tileBuffer);
+            tilesOut.writeInt(tile.x);
+            tilesOut.writeInt(tile.y);
+            tilesOut.writeInt(tileBuffer.size());
+            tileBuffer.writeTo(tilesOut);
+        }
+        proofer.getStats().record(PipelineStats.Stage.Encode, System.nanoTime() - before);
+    }
+
+    /**
+     * Sends the device the current frame, as tiles when only parts of it changed, or as a
+     * bare {@link Protocol#FRAME_UNCHANGED} marker when it's identical to the last one sent.
+     * Adaptive devices that are falling behind get degraded full frames, and once the source
+     * stops changing or the device catches up, one lossless frame to replace them.
+     */
+    private void sendFrame(FrameTransport transport, int seq) throws IOException {
+        frameStartNanos.set(seq % FRAME_START_SLOTS, System.nanoTime());
+        sendingLevel = -1;
+
+        // Loaded files never change in place, so only screen captures are fingerprinted.
+        boolean fileSource = proofer.isFileSourceType();
+        BufferedImage source = null;
+        long fingerprint = 0;
+        if (!hasValidDeviceSize()) {
+            // Nothing to send yet.
+        } else if (fileSource) {
+            source = acquireFileSource(currentDeviceSize);
+        } else {
+            ScreenCapturer.CapturedFrame frame = proofer.getScreenCapturer().getLatestFrame();
+            if (frame != null) {
+                source = frame.image;
+                fingerprint = frame.fingerprint;
+            }
+        }
+
+        if (source == null) {
+            lastSentSize = null;
+            writeFrame(transport, Protocol.FRAME_EMPTY, seq, null, 0);
+            return;
+        }
+
+        Dimension deviceSize = currentDeviceSize;
+        Rectangle region = getSourceRegion(source, deviceSize);
+        boolean refine = false;
+        if (deviceSize.equals(lastSentSize)
+                && (region == null ? lastSentRegion == null : region.equals(lastSentRegion))
+                && (fileSource ? source == lastSentFile : lastSentFile == null)
+                && fingerprint == lastSentFingerprint) {
+            if (quality == null || lastSentLossless) {
+                writeFrame(transport, Protocol.FRAME_UNCHANGED, seq, null, 0);
+                return;
+            }
+            refine = true;
+        } else if (lastSentDegraded && quality.getLevel() == 0) {
+            // Caught up, but still changing, e.g. a blinking caret. Tiles would only patch the
+            // degraded frame, so replace all of it.
+            refine = true;
+        }
+
+        lastSentSize = deviceSize;
+        lastSentRegion = region;
+        lastSentFile = fileSource ? source : null;
+        lastSentFingerprint = fingerprint;
+
+        // Devices of the same size, panned to the same place, share the scaled frame and its
+        // full encoding.
+        FrameCache.Entry frame = proofer.getFrameCache().get(source, region, deviceSize);
+        try {
+            if (refine) {
+                // There's time to replace the degraded frame with the real thing. Later tiles
+                // are diffed against this frame, which may have changed since the last one.
+                if (tilesEnabled) {
+                    tileDiffer.diff(frame.getScaled());
+                }
+                lastSentLossless = true;
+                lastSentDegraded = false;
+                if (!codec.isLossless()) {
+                    writeAdaptiveFrame(transport, seq, frame, new PngCodec(), deviceSize);
+                    return;
+                }
+            } else if (tilesEnabled) {
+                // Fall back to a full frame when most of it changed anyway.
+                BufferedImage bi = frame.getScaled();
+                List<Rectangle> dirtyTiles = tileDiffer.diff(bi);
+                if (dirtyTiles != null && dirtyTiles.size() <= tileDiffer.getTileCount() / 2) {
+                    encodeTiles(bi, dirtyTiles);
+                    lastSentLossless &= codec.isLossless();
+                    writeFrame(transport, Protocol.FRAME_TILES, seq, tilesBuffer.getData(),
+                            tilesBuffer.size());
+                    return;
+                }
+            }
+
+            if (!refine && quality != null) {
+                sendingLevel = quality.getLevel();
+                if (sendingLevel > 0) {
+                    sendDegradedFrame(transport, seq, source, region, frame, deviceSize);
+                    return;
+                }
+            }
+
+            FrameBuffer encoded = frame.getEncoded(codec);
+            lastSentLossless = codec.isLossless();
+            lastSentDegraded = false;
+            writeFrame(transport, Protocol.FRAME_IMAGE, seq, encoded.getData(), encoded.size());
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Sends the frame at the quality and scale the {@link QualityController} asks for.
+     */
+    private void sendDegradedFrame(FrameTransport transport, int seq, BufferedImage source,
+            Rectangle region, FrameCache.Entry frame, Dimension deviceSize) throws IOException {
+        FrameCodec degraded = codec;
+        if ((supportedCodecs & (1 << Protocol.CODEC_JPEG)) != 0) {
+            float jpegQuality = quality.getQuality();
+            if (degradedCodec == null || degradedCodec.getQuality() != jpegQuality) {
+                degradedCodec = new JpegCodec(jpegQuality);
+            }
+            degraded = degradedCodec;
+        }
+
+        lastSentLossless = false;
+        lastSentDegraded = true;
+
+        float scale = quality.getScale();
+        if (scale >= 1) {
+            writeAdaptiveFrame(transport, seq, frame, degraded, deviceSize);
+            return;
+        }
+
+        Dimension scaledSize = new Dimension(Math.max(1, Math.round(deviceSize.width * scale)),
+                Math.max(1, Math.round(deviceSize.height * scale)));
+        if (region != null) {
+            // Crops aren't cached at every scale, so scale this one down directly.
+            PipelineStats stats = proofer.getStats();
+            long before = System.nanoTime();
+            BufferedImage scaled = FrameCache.scale(frame.getScaled(), scaledSize);
+            stats.record(PipelineStats.Stage.Scale, System.nanoTime() - before);
+            before = System.nanoTime();
+            degradedBuffer.reset();
+            degraded.encode(scaled, degradedBuffer);
+            stats.record(PipelineStats.Stage.Encode, System.nanoTime() - before);
+            writeAdaptiveFrame(transport, seq, degraded.getId(), degradedBuffer, deviceSize);
+            return;
+        }
+
+        FrameCache.Entry scaled = proofer.getFrameCache().get(source, scaledSize);
+        try {
+            writeAdaptiveFrame(transport, seq, scaled, degraded, deviceSize);
+        } finally {
+            scaled.release();
+        }
+    }
+
+    private void writeAdaptiveFrame(FrameTransport transport, int seq, FrameCache.Entry frame,
+            FrameCodec frameCodec, Dimension deviceSize) throws IOException {
+        writeAdaptiveFrame(transport, seq, frameCodec.getId(), frame.getEncoded(frameCodec),
+                deviceSize);
+    }
+
+    private void writeAdaptiveFrame(FrameTransport transport, int seq, int codecId,
+            FrameBuffer encoded, Dimension deviceSize) throws IOException {
+        header[3] = codecId;
+        header[4] = deviceSize.width;
+        header[5] = deviceSize.height;
+        writeFrame(transport, Protocol.FRAME_ADAPTIVE, seq, 3, encoded.getData(), encoded.size());
+    }
+}
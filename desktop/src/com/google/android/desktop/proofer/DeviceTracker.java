@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Follows devices being connected and disconnected, reporting the serials of those ready to
+ * use as soon as they change. Listens to the adb server's track-devices stream, and polls with
+ * backoff while the server can't be reached.
+ */
+public class DeviceTracker {
+    private static final long MIN_POLL_INTERVAL_MILLIS = 250;
+    private static final long MAX_POLL_INTERVAL_MILLIS = 4000;
+
+    private boolean debug = Util.isDebug();
+
+    private AdbRunner adbRunner;
+    private AdbClient adbClient = new AdbClient();
+    private DeviceTrackerCallbacks callbacks;
+
+    private List<String> lastSerials;
+    private boolean reported;
+
+    public static interface DeviceTrackerCallbacks {
+        /**
+         * Called with the serials of all ready devices whenever they change, or with null if
+         * adb can't be used at all.
+         */
+        public void onDevicesChanged(List<String> serials);
+    }
+
+    public DeviceTracker(AdbRunner adbRunner, DeviceTrackerCallbacks callbacks) {
+        this.adbRunner = adbRunner;
+        this.callbacks = callbacks;
+    }
+
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                trackLoop();
+            }
+        }, "DeviceTracker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void trackLoop() {
+        long pollIntervalMillis = MIN_POLL_INTERVAL_MILLIS;
+        while (true) {
+            try {
+                adbClient.trackDevices(new AdbClient.DeviceListListener() {
+                    public void onDeviceList(String devices) {
+                        report(AdbRunner.parseDevices(devices));
+                    }
+                });
+            } catch (IOException e) {
+                if (debug) {
+                    System.out.println("Can't track devices, polling: " + e);
+                }
+            } catch (ProoferException e) {
+                if (debug) {
+                    System.out.println("Can't track devices, polling: " + e.getMessage());
+                }
+            }
+
+            // Polling runs adb if need be, which also starts the server for the next attempt
+            // at tracking.
+            List<String> serials;
+            try {
+                serials = adbRunner.getDevices();
+            } catch (ProoferException e) {
+                serials = null;
+            }
+
+            if (report(serials)) {
+                pollIntervalMillis = MIN_POLL_INTERVAL_MILLIS;
+            } else {
+                pollIntervalMillis = Math.min(pollIntervalMillis * 2, MAX_POLL_INTERVAL_MILLIS);
+            }
+
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Passes the serials on to the callbacks if they changed, returning whether they did.
+     */
+    private synchronized boolean report(List<String> serials) {
+        if (reported && (serials == null ? lastSerials == null : serials.equals(lastSerials))) {
+            return false;
+        }
+
+        reported = true;
+        lastSerials = serials;
+        callbacks.onDevicesChanged(serials);
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.io.File;
+
+/**
+ * Watches a file on its own thread and reports once it has changed and then stopped changing,
+ * so that a mockup re-exported over the old one gets reloaded without a half-written version
+ * ever being picked up. Polls the file's size and modification time, since the desktop app
+ * still runs on Java 6, which has no WatchService.
+ */
+public class FileWatcher {
+    private static final long POLL_INTERVAL_MILLIS = 100;
+    // How long a changed file has to look the same before it's reported.
+    private static final long SETTLE_MILLIS = 150;
+
+    private boolean debug = Util.isDebug();
+
+    private FileWatcherCallbacks callbacks;
+    private Thread thread;
+
+    // Guarded by this.
+    private File file;
+    private Stamp reportedStamp;
+    private Stamp pendingStamp;
+    private long pendingSince;
+
+    public static interface FileWatcherCallbacks {
+        /**
+         * Called on the watcher's thread, which is free to take its time reloading the file.
+         */
+        public void onFileChanged(File file);
+    }
+
+    public FileWatcher(FileWatcherCallbacks callbacks) {
+        this.callbacks = callbacks;
+    }
+
+    /**
+     * Starts watching the given file instead of the current one, if any, or stops watching if
+     * it's null. Changes made before this call aren't reported.
+     */
+    public synchronized void watch(File file) {
+        if (file == null ? this.file == null : file.equals(this.file)) {
+            return;
+        }
+
+        this.file = file;
+        reportedStamp = (file != null) ? new Stamp(file) : null;
+        pendingStamp = null;
+
+        if (file != null && thread == null) {
+            thread = new Thread(new Runnable() {
+                public void run() {
+                    watchLoop();
+                }
+            }, "FileWatcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    private void watchLoop() {
+        while (true) {
+            File changed = null;
+            synchronized (this) {
+                try {
+                    while (file == null) {
+                        wait();
+                    }
+                    wait(POLL_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (file == null) {
+                    continue;
+                }
+
+                Stamp stamp = new Stamp(file);
+                long now = System.currentTimeMillis();
+                if (stamp.equals(reportedStamp)) {
+                    pendingStamp = null;
+                } else if (!stamp.equals(pendingStamp)) {
+                    pendingStamp = stamp;
+                    pendingSince = now;
+                } else if (now - pendingSince >= SETTLE_MILLIS && stamp.exists()) {
+                    // Reported even if reloading it fails, so that a broken file isn't retried
+                    // until it changes again.
+                    reportedStamp = stamp;
+                    pendingStamp = null;
+                    changed = file;
+                }
+            }
+
+            if (changed != null) {
+                if (debug) {
+                    System.out.println("File changed: " + changed);
+                }
+                callbacks.onFileChanged(changed);
+            }
+        }
+    }
+
+    /**
+     * What a file looked like when polled.
+     */
+    private static class Stamp {
+        private final long lastModified;
+        private final long length;
+
+        private Stamp(File file) {
+            // Both are 0 if the file doesn't exist, e.g. in the middle of being replaced.
+            lastModified = file.lastModified();
+            length = file.length();
+        }
+
+        private boolean exists() {
+            return lastModified != 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) o;
+            return lastModified == other.lastModified && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (lastModified * 31 + length);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A byte array output stream whose contents can be read in place, so that it can be reset and
+ * reused frame after frame without copying or reallocating.
+ */
+public class FrameBuffer extends ByteArrayOutputStream {
+    public FrameBuffer() {
+        super(64 * 1024);
+    }
+
+    /**
+     * Returns the backing array, of which the first {@link #size()} bytes are valid until the
+     * buffer is next written to or reset.
+     */
+    public byte[] getData() {
+        return buf;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import com.google.android.desktop.proofer.codec.FrameCodec;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps source frames already scaled to device sizes, along with their encoded forms, so that
+ * the work is done once per source frame and size no matter how many devices or requests need
+ * it. Keyed by the identity of the source image, which must not change once handed out, the
+ * region of it shown, if not all of it, and the device size.
+ *
+ * <p>Entries are reference counted: every {@link #get} must be matched by an
+ * {@link Entry#release()}. Once an entry is evicted and released by everyone using it, its
+ * scaled image and encode buffers go back to pools for the next frames of the same size, so
+ * that steady-state mirroring doesn't allocate a frame's worth of memory per frame.
+ *
+ * <p>By default only the few most recently used entries are kept. Sources prepared ahead of
+ * time, like slideshow slides, need more room, which {@link #setLimits} gives them in
+ * bytes.
+ */
+public class FrameCache {
+    public static final int MAX_ENTRIES = 4;
+    private static final int MAX_POOLED_SURFACES_PER_SIZE = 2;
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private PipelineStats stats;
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+            MAX_ENTRIES, 0.75f, true);
+
+    // Guarded by this, like the entries.
+    private int maxEntries = MAX_ENTRIES;
+    private long maxBytes = Long.MAX_VALUE;
+    private long bytes;
+    private final Map<String, List<Surface>> surfacePool = new HashMap<String, List<Surface>>();
+    private final List<FrameBuffer> bufferPool = new ArrayList<FrameBuffer>();
+
+    public FrameCache(PipelineStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Returns the entry for the given source and size, creating it if needed. Scaling and
+     * encoding happen lazily, the first time they're asked for. The caller must release the
+     * entry once done with it and anything obtained from it.
+     */
+    public synchronized Entry get(BufferedImage source, Dimension size) {
+        return get(source, null, size);
+    }
+
+    /**
+     * Like {@link #get(BufferedImage, Dimension)}, but for a region of the source shown at its
+     * actual size rather than scaled. The region must lie within the source and be no larger
+     * than the given size; anything it doesn't cover is black.
+     */
+    public synchronized Entry get(BufferedImage source, Rectangle region, Dimension size) {
+        Key key = new Key(source, region, size);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(source, (region != null) ? new Rectangle(region) : null,
+                    new Dimension(size));
+            entries.put(key, entry);
+            // The entry keeps its source alive, which may be all that does, as with captures.
+            entry.bytes = Util.getImageBytes(source);
+            bytes += entry.bytes;
+            trim();
+        }
+        entry.refs++;
+        return entry;
+    }
+
+    /**
+     * Sets how many entries to keep, and how many bytes their sources, scaled images and
+     * encodings may add up to, evicting the least recently used ones as needed.
+     */
+    public synchronized void setLimits(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.cached = false;
+            entry.releaseLocked();
+        }
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache is within its limits, always
+     * keeping the most recent one. Must be called with the cache locked.
+     */
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > 1 && (entries.size() > maxEntries || bytes > maxBytes)) {
+            Entry eldest = it.next();
+            it.remove();
+            eldest.cached = false;
+            bytes -= eldest.bytes;
+            eldest.releaseLocked();
+        }
+    }
+
+    private synchronized void addBytes(Entry entry, long added) {
+        entry.bytes += added;
+        if (entry.cached) {
+            bytes += added;
+            trim();
+        }
+    }
+
+    private synchronized Surface obtainSurface(Dimension size, int type) {
+        List<Surface> pool = surfacePool.get(Surface.poolKey(size.width, size.height, type));
+        if (pool != null && !pool.isEmpty()) {
+            return pool.remove(pool.size() - 1);
+        }
+        return new Surface(new BufferedImage(size.width, size.height, type));
+    }
+
+    private synchronized FrameBuffer obtainBuffer() {
+        if (!bufferPool.isEmpty()) {
+            FrameBuffer buffer = bufferPool.remove(bufferPool.size() - 1);
+            buffer.reset();
+            return buffer;
+        }
+        return new FrameBuffer();
+    }
+
+    /**
+     * Returns an unused entry's scaled image and buffers to the pools. Must be called with the
+     * cache locked.
+     */
+    private void recycle(Entry entry) {
+        if (entry.surface != null) {
+            BufferedImage image = entry.surface.image;
+            String key = Surface.poolKey(image.getWidth(), image.getHeight(), image.getType());
+            List<Surface> pool = surfacePool.get(key);
+            if (pool == null) {
+                pool = new ArrayList<Surface>();
+                surfacePool.put(key, pool);
+            }
+            if (pool.size() < MAX_POOLED_SURFACES_PER_SIZE) {
+                pool.add(entry.surface);
+            } else {
+                entry.surface.graphics.dispose();
+            }
+            entry.surface = null;
+        }
+
+        for (FrameBuffer buffer : entry.encoded.values()) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                bufferPool.add(buffer);
+            }
+        }
+        entry.encoded.clear();
+    }
+
+    public class Entry {
+        private final BufferedImage source;
+        private final Rectangle region;
+        private final Dimension size;
+        private BufferedImage scaled;
+        private Surface surface;
+        private final Map<String, FrameBuffer> encoded = new HashMap<String, FrameBuffer>();
+
+        // Guarded by the cache. Starts at one for the cache's own reference.
+        private int refs = 1;
+        private boolean cached = true;
+        private long bytes;
+
+        private Entry(BufferedImage source, Rectangle region, Dimension size) {
+            this.source = source;
+            this.region = region;
+            this.size = size;
+        }
+
+        public synchronized BufferedImage getScaled() {
+            if (scaled == null) {
+                if (region != null) {
+                    crop();
+                } else if (source.getWidth() == size.width && source.getHeight() == size.height) {
+                    scaled = source;
+                } else {
+                    long before = System.nanoTime();
+                    surface = obtainSurface(size, getScaledType(source));
+                    scaleInto(source, surface.image, surface.graphics);
+                    scaled = surface.image;
+                    stats.record(PipelineStats.Stage.Scale, System.nanoTime() - before);
+                }
+                if (surface != null) {
+                    addBytes(this, 4L * size.width * size.height);
+                }
+            }
+            return scaled;
+        }
+
+        private void crop() {
+            if (region.width == size.width && region.height == size.height) {
+                // Shares the source's pixels, there's nothing to do.
+                scaled = source.getSubimage(region.x, region.y, region.width, region.height);
+                return;
+            }
+
+            long before = System.nanoTime();
+            surface = obtainSurface(size, getScaledType(source));
+            Graphics2D g2d = surface.graphics;
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.setColor(Color.BLACK);
+            g2d.fillRect(0, 0, size.width, size.height);
+            g2d.drawImage(source,
+                    0, 0, region.width, region.height,
+                    region.x, region.y, region.x + region.width, region.y + region.height,
+                    null);
+            scaled = surface.image;
+            stats.record(PipelineStats.Stage.Scale, System.nanoTime() - before);
+        }
+
+        /**
+         * Returns the scaled image encoded with the given codec, encoding it only if it hasn't
+         * been already with a codec of the same name and settings. The buffer must not be
+         * modified.
+         */
+        public synchronized FrameBuffer getEncoded(FrameCodec codec) throws IOException {
+            FrameBuffer data = encoded.get(codec.getName());
+            if (data == null) {
+                BufferedImage image = getScaled();
+                long before = System.nanoTime();
+                data = obtainBuffer();
+                codec.encode(image, data);
+                encoded.put(codec.getName(), data);
+                stats.record(PipelineStats.Stage.Encode, System.nanoTime() - before);
+                addBytes(this, data.size());
+            }
+            return data;
+        }
+
+        /**
+         * Gives up the reference obtained from {@link FrameCache#get}.
+         */
+        public void release() {
+            synchronized (FrameCache.this) {
+                releaseLocked();
+            }
+        }
+
+        private void releaseLocked() {
+            if (--refs == 0) {
+                recycle(this);
+            }
+        }
+    }
+
+    /**
+     * Bilinearly scales the image to the given size, returning it as is if it's already that
+     * size.
+     */
+    public static BufferedImage scale(BufferedImage bi, Dimension size) {
+        if (bi.getWidth() == size.width && bi.getHeight() == size.height) {
+            return bi;
+        }
+
+        BufferedImage resized = new BufferedImage(size.width, size.height, getScaledType(bi));
+        Graphics2D g2d = resized.createGraphics();
+        scaleInto(bi, resized, g2d);
+        g2d.dispose();
+        return resized;
+    }
+
+    private static int getScaledType(BufferedImage bi) {
+        return bi.getColorModel().hasAlpha()
+                ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+
+    /**
+     * Bilinearly scales the image over the whole destination, drawing with the given graphics,
+     * which must belong to the destination.
+     */
+    private static void scaleInto(BufferedImage bi, BufferedImage dest, Graphics2D g2d) {
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.setRenderingHint(
+                RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(
+                bi,
+                0, 0, dest.getWidth(), dest.getHeight(),
+                0, 0, bi.getWidth(), bi.getHeight(),
+                null);
+    }
+
+    /**
+     * A pooled scaled image, along with graphics for drawing into it.
+     */
+    private static class Surface {
+        private final BufferedImage image;
+        private final Graphics2D graphics;
+
+        private Surface(BufferedImage image) {
+            this.image = image;
+            this.graphics = image.createGraphics();
+        }
+
+        private static String poolKey(int width, int height, int type) {
+            return width + "x" + height + ":" + type;
+        }
+    }
+
+    private static class Key {
+        private final BufferedImage source;
+        private final Rectangle region;
+        private final int width;
+        private final int height;
+
+        private Key(BufferedImage source, Rectangle region, Dimension size) {
+            this.source = source;
+            this.region = (region != null) ? new Rectangle(region) : null;
+            this.width = size.width;
+            this.height = size.height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return source == other.source && width == other.width && height == other.height
+                    && (region == null ? other.region == null : region.equals(other.region));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = (System.identityHashCode(source) * 31 + width) * 31 + height;
+            return (region != null) ? hash * 31 + region.hashCode() : hash;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A cheap 64-bit content hash of a frame's pixels, used to tell whether anything on screen
+ * changed since the last frame was sent.
+ */
+public class FrameFingerprint {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    public static long compute(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        long hash = FNV_OFFSET_BASIS;
+        hash = (hash ^ width) * FNV_PRIME;
+        hash = (hash ^ height) * FNV_PRIME;
+
+        int[] pixels = Util.getPackedPixels(image);
+        if (pixels != null) {
+            for (int i = 0, n = width * height; i < n; i++) {
+                hash = (hash ^ pixels[i]) * FNV_PRIME;
+            }
+            return hash;
+        }
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                hash = (hash ^ row[x]) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * A connection to a device, as used by a {@link DeviceSession}. Everything sent to the device
+ * is a run of ints, optionally followed by a payload, which is written and flushed in one go.
+ * Reading and writing may happen on different threads, but each only on one at a time.
+ */
+public interface FrameTransport {
+    public DataInputStream getInput();
+
+    /**
+     * Writes the first headerCount ints of the header, then the first payloadLength bytes of
+     * the payload, and flushes. The payload may be null if payloadLength is 0.
+     */
+    public void write(int[] header, int headerCount, byte[] payload, int payloadLength)
+            throws IOException;
+
+    public String getRemoteAddress();
+
+    /**
+     * Closes the connection, unblocking any pending read or write.
+     */
+    public void close();
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+/**
+ * A fixed-size histogram of durations, cheap enough to record into on every frame. Durations
+ * are bucketed by their power of two in microseconds, each split into {@link #SUB_BUCKETS}
+ * linear sub-buckets, so percentiles are accurate to within about 1 / SUB_BUCKETS of the value.
+ * Not thread-safe.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough powers of two to cover over an hour in microseconds.
+    private static final int MAGNITUDES = 32;
+
+    private final long[] buckets = new long[(MAGNITUDES + 1) * SUB_BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[bucketIndex(nanos / 1000)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getAverageMillis() {
+        return (count == 0) ? 0 : totalNanos / 1e6 / count;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * Returns the duration that the given fraction (e.g. 0.99) of recorded durations were at
+     * or below, rounded up to the top of its bucket.
+     */
+    public double getPercentileMillis(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBoundMicros(i) / 1e3, getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+    }
+
+    private static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        // The magnitude is how far the top SUB_BUCKET_BITS + 1 bits had to be shifted down.
+        int magnitude = 64 - Long.numberOfLeadingZeros(micros) - (SUB_BUCKET_BITS + 1);
+        int subBucket = (int) (micros >>> magnitude) - SUB_BUCKETS;
+        int index = (magnitude + 1) * SUB_BUCKETS + subBucket;
+        return Math.min(index, (MAGNITUDES + 1) * SUB_BUCKETS - 1);
+    }
+
+    private static long bucketUpperBoundMicros(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+
+        int magnitude = index / SUB_BUCKETS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1)) << magnitude;
+    }
+}
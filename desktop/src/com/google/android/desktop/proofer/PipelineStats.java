@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Accumulates how long each stage of the frame pipeline takes into histograms, along with the
+ * rate frames are being delivered at. Exposed over JMX once {@link #register()} is called.
+ */
+public class PipelineStats implements PipelineStatsMXBean {
+    public static enum Stage {
+        Capture,
+        Scale,
+        Encode,
+        Write,
+        // Reported by the device.
+        Decode,
+        Display,
+        // From the desktop starting on a frame to the device having decoded it, plus the
+        // device's latest display time.
+        EndToEnd,
+    }
+
+    public static final String OBJECT_NAME =
+            "com.google.android.desktop.proofer:type=PipelineStats";
+
+    private static final long FPS_WINDOW_NANOS = 1000000000L;
+
+    private boolean debug = Util.isDebug();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    private long fpsWindowStartNanos;
+    private int fpsWindowFrames;
+    private double framesPerSecond;
+
+    public PipelineStats() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Registers these stats with the platform MBean server under {@link #OBJECT_NAME}.
+     */
+    public void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            if (debug) {
+                System.out.println("Couldn't register pipeline stats MBean: " + e);
+            }
+        }
+    }
+
+    public synchronized void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Counts a frame as delivered to a device, for {@link #getFramesPerSecond()}.
+     */
+    public synchronized void recordFrame() {
+        long now = System.nanoTime();
+        if (fpsWindowFrames == 0) {
+            fpsWindowStartNanos = now;
+        }
+        fpsWindowFrames++;
+
+        long elapsed = now - fpsWindowStartNanos;
+        if (elapsed >= FPS_WINDOW_NANOS) {
+            framesPerSecond = (fpsWindowFrames - 1) * 1e9 / elapsed;
+            fpsWindowStartNanos = now;
+            fpsWindowFrames = 1;
+        }
+    }
+
+    public synchronized long getCount(Stage stage) {
+        return histograms[stage.ordinal()].getCount();
+    }
+
+    public synchronized double getAverageMillis(Stage stage) {
+        return histograms[stage.ordinal()].getAverageMillis();
+    }
+
+    public synchronized double getMaxMillis(Stage stage) {
+        return histograms[stage.ordinal()].getMaxMillis();
+    }
+
+    public synchronized double getPercentileMillis(Stage stage, double fraction) {
+        return histograms[stage.ordinal()].getPercentileMillis(fraction);
+    }
+
+    /**
+     * Returns the frame rate over the last full second, or 0 if no frame was delivered in the
+     * last couple of seconds.
+     */
+    public synchronized double getFramesPerSecond() {
+        if (System.nanoTime() - fpsWindowStartNanos > 2 * FPS_WINDOW_NANOS) {
+            return 0;
+        }
+        return framesPerSecond;
+    }
+
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        fpsWindowFrames = 0;
+        framesPerSecond = 0;
+    }
+
+    public synchronized StageSummary getSummary(Stage stage) {
+        LatencyHistogram histogram = histograms[stage.ordinal()];
+        return new StageSummary(histogram.getCount(), histogram.getAverageMillis(),
+                histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.99),
+                histogram.getMaxMillis());
+    }
+
+    public StageSummary getCapture() {
+        return getSummary(Stage.Capture);
+    }
+
+    public StageSummary getScale() {
+        return getSummary(Stage.Scale);
+    }
+
+    public StageSummary getEncode() {
+        return getSummary(Stage.Encode);
+    }
+
+    public StageSummary getWrite() {
+        return getSummary(Stage.Write);
+    }
+
+    public StageSummary getDecode() {
+        return getSummary(Stage.Decode);
+    }
+
+    public StageSummary getDisplay() {
+        return getSummary(Stage.Display);
+    }
+
+    public StageSummary getEndToEnd() {
+        return getSummary(Stage.EndToEnd);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%.1f fps", getFramesPerSecond()));
+        for (Stage stage : Stage.values()) {
+            sb.append(String.format(", %s p50 %.1f p99 %.1f max %.1f msec",
+                    stage, getPercentileMillis(stage, 0.5), getPercentileMillis(stage, 0.99),
+                    getMaxMillis(stage)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A snapshot of one stage's histogram, as exposed over JMX.
+     */
+    public static class StageSummary {
+        private final long count;
+        private final double averageMillis;
+        private final double p50Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        public StageSummary(long count, double averageMillis, double p50Millis,
+                double p99Millis, double maxMillis) {
+            this.count = count;
+            this.averageMillis = averageMillis;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getAverageMillis() {
+            return averageMillis;
+        }
+
+        public double getP50Millis() {
+            return p50Millis;
+        }
+
+        public double getP99Millis() {
+            return p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+/**
+ * The JMX view of {@link PipelineStats}: the frame rate and a summary of each stage.
+ */
+public interface PipelineStatsMXBean {
+    public double getFramesPerSecond();
+
+    public PipelineStats.StageSummary getCapture();
+
+    public PipelineStats.StageSummary getScale();
+
+    public PipelineStats.StageSummary getEncode();
+
+    public PipelineStats.StageSummary getWrite();
+
+    public PipelineStats.StageSummary getDecode();
+
+    public PipelineStats.StageSummary getDisplay();
+
+    public PipelineStats.StageSummary getEndToEnd();
+
+    public void reset();
+}
@@ -16,37 +16,72 @@
 
 package com.google.android.desktop.proofer;
 
-import com.google.android.desktop.proofer.os.OSBinder;
+import com.google.android.desktop.proofer.codec.FrameCodec;
 
 import java.awt.*;
-import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
 public class Proofer {
     public static final String SOURCE_TYPE_FILE = "file";
     public static final String SOURCE_TYPE_SCREEN = "screen";
+    public static final String SOURCE_TYPE_FOLDER = "folder";
 
     private boolean debug = Util.isDebug();
 
     private AdbRunner adbRunner;
-    private ProoferClient client;
-
-    private String sourceType = SOURCE_TYPE_SCREEN;
-    private File file;
+    private ScreenCapturer screenCapturer;
+    private PipelineStats stats = new PipelineStats();
+    private FrameCache frameCache = new FrameCache(stats);
+
+    // One session per connected device, keyed by serial. When adb can't list devices, a single
+    // session keyed by null serves whatever was forwarded to Config.PORT_LOCAL by hand.
+    private final Map<String, DeviceSession> sessions = new LinkedHashMap<String, DeviceSession>();
+
+    private volatile String sourceType = SOURCE_TYPE_SCREEN;
+    private volatile String codecName = Util.getCodecName();
+    private volatile boolean actualSize;
+    private volatile File file;
+    private volatile BufferedImage image;
+    private volatile TiledImage tiledImage;
+    private FileWatcher fileWatcher = new FileWatcher(new FileWatcher.FileWatcherCallbacks() {
+        public void onFileChanged(File file) {
+            reloadFile(file);
+        }
+    });
+    private volatile Slideshow slideshow;
+    private Slideshow.SlideshowCallbacks slideshowCallbacks = new Slideshow.SlideshowCallbacks() {
+        public void onSlidePrefetched(BufferedImage image) {
+            prefetch(image);
+        }
+    };
+    // Held while changing what's shown, so that slides stepped to from the desktop and from
+    // devices at the same time are shown in the order they were stepped to.
+    private final Object imageLock = new Object();
     private State state = State.Unknown;
     private ProoferCallbacks prooferCallbacks;
 
     public static interface ProoferCallbacks {
         public void onStateChange(State newState);
         public void onDeviceSizeChanged(Dimension size);
+        /**
+         * Called when a device starts requesting frames, with the time it took from the device
+         * showing up or its previous connection dropping.
+         */
+        public void onDeviceConnected(String serial, long reconnectMillis);
+        /**
+         * Called when the slideshow moves to another slide, on whichever thread moved it.
+         */
+        public void onSlideChanged(int index, int count);
     }
 
     public static enum State {
@@ -58,314 +93,608 @@ public class Proofer {
 
     public Proofer(ProoferCallbacks prooferCallbacks) {
         this.adbRunner = new AdbRunner();
-        this.client = new ProoferClient();
+        this.screenCapturer = new ScreenCapturer(stats);
         this.prooferCallbacks = prooferCallbacks;
+        stats.register();
     }
 
+    /**
+     * Starts watching for devices, serving each one on its own {@link DeviceSession} as soon
+     * as it's connected.
+     */
     public void startConnectionLoop() {
-        new Thread(new Runnable() {
-            public void run() {
-                while (true) {
-                    try {
-                        client.connectAndWaitForRequests();
-                    } catch (CannotConnectException e) {
-                        // Can't connect to device, try re-setting up port forwarding.
-                        // If no devices are connected, this will fail.
-                        try {
-                            setupPortForwarding();
-                        } catch (ProoferException e2) {
-                            // If we get an error here, we're disconnected.
-                            updateState(State.Disconnected);
-                        }
+        new DeviceTracker(adbRunner, new DeviceTracker.DeviceTrackerCallbacks() {
+            public void onDevicesChanged(List<String> serials) {
+                updateDevices(serials);
+            }
+        }).start();
+    }
+
+    private void refreshDevices() {
+        List<String> serials;
+        try {
+            serials = adbRunner.getDevices();
+        } catch (ProoferException e) {
+            serials = null;
+        }
+        updateDevices(serials);
+    }
+
+    /**
+     * Starts sessions for newly connected devices and stops those of devices that are gone.
+     *
+     * @param serials The ready devices, or null if adb can't be used.
+     */
+    private void updateDevices(List<String> serials) {
+        if (serials == null) {
+            // Without adb, the best we can do is hope the port was forwarded manually.
+            serials = Collections.singletonList(null);
+        }
+
+        synchronized (sessions) {
+            for (Iterator<DeviceSession> it = sessions.values().iterator(); it.hasNext(); ) {
+                DeviceSession session = it.next();
+                if (!serials.contains(session.getSerial())) {
+                    if (debug) {
+                        System.out.println("Device removed: " + session.getSerial());
                     }
+                    session.stop();
+                    it.remove();
+                }
+            }
 
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e) {
-                        break;
+            for (String serial : serials) {
+                if (!sessions.containsKey(serial)) {
+                    DeviceSession session = new DeviceSession(this, serial,
+                            (serial != null) ? nextFreePort() : Config.PORT_LOCAL);
+                    if (debug) {
+                        System.out.println("Device added: " + serial
+                                + " on port " + session.getLocalPort());
                     }
+                    sessions.put(serial, session);
+                    session.start();
                 }
             }
-        }).start();
+        }
+
+        onSessionStateChanged(null);
+    }
+
+    /**
+     * Returns the lowest local port, starting at {@link Config#PORT_LOCAL}, not used by any
+     * session. Must be called with the sessions lock held.
+     */
+    private int nextFreePort() {
+        int port = Config.PORT_LOCAL;
+        boolean taken = true;
+        while (taken) {
+            taken = false;
+            for (DeviceSession session : sessions.values()) {
+                if (session.getLocalPort() == port) {
+                    taken = true;
+                    ++port;
+                    break;
+                }
+            }
+        }
+        return port;
+    }
+
+    public int getDeviceCount() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /**
+     * Returns the serials of all connected devices, or a single null serial (meaning whichever
+     * device adb picks) if there are none, so that commands fail with adb's own error.
+     */
+    private List<String> getTargetSerials() throws ProoferException {
+        List<String> serials = adbRunner.getDevices();
+        if (serials.isEmpty()) {
+            serials = Collections.singletonList(null);
+        }
+        return serials;
     }
 
     public void runAndroidApp() throws ProoferException {
-        adbRunner.adb(new String[]{
-                "shell", "am", "start",
-                "-a", "android.intent.action.MAIN",
-                "-c", "android.intent.category.LAUNCHER",
-                "-n", Config.ANDROID_APP_PACKAGE_NAME + "/.DesktopViewerActivity"
-        });
+        ProoferException error = null;
+        for (String serial : getTargetSerials()) {
+            try {
+                adbRunner.adb(serial, new String[]{
+                        "shell", "am", "start",
+                        "-a", "android.intent.action.MAIN",
+                        "-c", "android.intent.category.LAUNCHER",
+                        "-n", Config.ANDROID_APP_PACKAGE_NAME + "/.DesktopViewerActivity"
+                });
+            } catch (ProoferException e) {
+                error = e;
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
     }
 
     public void killAndroidApp() throws ProoferException {
-        adbRunner.adb(new String[]{
-                "shell", "am", "force-stop",
-                Config.ANDROID_APP_PACKAGE_NAME
-        });
+        ProoferException error = null;
+        for (String serial : getTargetSerials()) {
+            try {
+                adbRunner.adb(serial, new String[]{
+                        "shell", "am", "force-stop",
+                        Config.ANDROID_APP_PACKAGE_NAME
+                });
+            } catch (ProoferException e) {
+                error = e;
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
     }
 
     public void uninstallAndroidApp() throws ProoferException {
-        adbRunner.adb(new String[]{
-                "uninstall", Config.ANDROID_APP_PACKAGE_NAME
-        });
+        ProoferException error = null;
+        for (String serial : getTargetSerials()) {
+            try {
+                adbRunner.adb(serial, new String[]{
+                        "uninstall", Config.ANDROID_APP_PACKAGE_NAME
+                });
+            } catch (ProoferException e) {
+                error = e;
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
     }
 
     public void installAndroidApp(boolean force) throws ProoferException {
-        if (force || !isAndroidAppInstalled()) {
-            File apkPath = new File(Util.getCacheDirectory(), "Proofer.apk");
-            if (Util.extractResource("assets/Proofer.apk", apkPath)) {
-                adbRunner.adb(new String[]{
-                        "install", "-r", apkPath.toString()
-                });
-            } else {
-                throw new ProoferException("Error extracting Android APK.");
+        ProoferException error = null;
+        for (String serial : getTargetSerials()) {
+            try {
+                if (force || !isAndroidAppInstalled(serial)) {
+                    File apkPath = new File(Util.getCacheDirectory(), "Proofer.apk");
+                    if (Util.extractResource("assets/Proofer.apk", apkPath)) {
+                        adbRunner.adb(serial, new String[]{
+                                "install", "-r", apkPath.toString()
+                        });
+                    } else {
+                        throw new ProoferException("Error extracting Android APK.");
+                    }
+                }
+            } catch (ProoferException e) {
+                error = e;
             }
         }
+
+        if (error != null) {
+            throw error;
+        }
     }
 
+    /**
+     * Checks adb is usable and picks up any newly connected devices. Each device's port is
+     * forwarded by its session.
+     */
     public void setupPortForwarding() throws ProoferException {
         try {
-            adbRunner.adb(new String[]{
-                    "forward", "tcp:" + Config.PORT_LOCAL, "tcp:" + Config.PORT_DEVICE
+            adbRunner.getDevices();
+        } catch (ProoferException e) {
+            throw newPortForwardingException(Config.PORT_LOCAL, e);
+        }
+
+        refreshDevices();
+    }
+
+    void setupPortForwarding(String serial, int localPort) throws ProoferException {
+        try {
+            adbRunner.adb(serial, new String[]{
+                    "forward", "tcp:" + localPort, "tcp:" + Config.PORT_DEVICE
             });
         } catch (ProoferException e) {
-            throw new ProoferException("Couldn't automatically setup port forwarding. "
-                    + "You'll need to "
-                    + "manually run "
-                    + "\"adb forward tcp:" + Config.PORT_LOCAL + " "
-                    + "tcp:" + Config.PORT_DEVICE + "\" "
-                    + "on the command line.", e);
+            throw newPortForwardingException(localPort, e);
         }
     }
 
+    private ProoferException newPortForwardingException(int localPort, Throwable cause) {
+        return new ProoferException("Couldn't automatically setup port forwarding. "
+                + "You'll need to "
+                + "manually run "
+                + "\"adb forward tcp:" + localPort + " "
+                + "tcp:" + Config.PORT_DEVICE + "\" "
+                + "on the command line.", cause);
+    }
+
+    /**
+     * Returns true if the app is installed on every connected device.
+     */
     public boolean isAndroidAppInstalled() throws ProoferException {
-        String out = adbRunner.adb(new String[]{
+        for (String serial : getTargetSerials()) {
+            if (!isAndroidAppInstalled(serial)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isAndroidAppInstalled(String serial) throws ProoferException {
+        String out = adbRunner.adb(serial, new String[]{
                 "shell", "pm", "list", "packages"
         });
         return out.contains(Config.ANDROID_APP_PACKAGE_NAME);
     }
 
     public void setSourceType(String sourceType) {
-        this.sourceType = sourceType;
+        synchronized (imageLock) {
+            this.sourceType = sourceType;
+            updateCacheLimits();
+        }
     }
 
     public String getSourceType() {
         return sourceType;
     }
 
+    /**
+     * Returns whether devices are shown the loaded file or slide, rather than the screen.
+     */
+    boolean isFileSourceType() {
+        return !SOURCE_TYPE_SCREEN.equals(sourceType);
+    }
+
+    /**
+     * Returns the loaded file, or the current slide's file if a slideshow is loaded.
+     */
     public File getFile() {
         return file;
     }
 
+    public Slideshow getSlideshow() {
+        return slideshow;
+    }
+
+    /**
+     * Sets the codec to use for new connections, by a name understood by
+     * {@link FrameCodec#forName(String)}. Devices that don't support it get PNG.
+     */
+    public void setCodecName(String codecName) {
+        this.codecName = codecName;
+    }
+
+    public String getCodecName() {
+        return codecName;
+    }
+
+    /**
+     * Sets whether devices show the source at its actual size, cropped to the part they're
+     * panned to, rather than scaled down to fit.
+     */
+    public void setActualSize(boolean actualSize) {
+        this.actualSize = actualSize;
+    }
+
+    public boolean isActualSize() {
+        return actualSize;
+    }
+
     public void setRequestedSourceRegion(Rectangle region) {
-        client.setRequestedSourceRegion(region);
+        screenCapturer.setRequestedSourceRegion(region);
+    }
+
+    public void setCaptureRate(int fps) {
+        screenCapturer.setCaptureRate(fps);
+    }
+
+    public PipelineStats getStats() {
+        return stats;
     }
 
     public void setImage(File file, BufferedImage image) {
-        this.file = file;
-        client.setImage(image);
+        setImage(file, image, null);
     }
 
-    private void updateState(State newState) {
-        if (this.state != newState && debug) {
-            switch (newState) {
-                case ConnectedActive:
-                    System.out.println("State: Connected and active");
-                    break;
-                case ConnectedIdle:
-                    System.out.println("State: Connected and idle");
-                    break;
-                case Disconnected:
-                    System.out.println("State: Disconnected");
-                    break;
-            }
-        }
+    /**
+     * Loads the file to show, keeping only the parts of it being shown in memory if it's
+     * large.
+     */
+    public void loadFile(File file) throws IOException {
+        TiledImage tiled = openIfLarge(file);
+        setImage(file, (tiled == null) ? readImage(file) : null, tiled);
+    }
 
-        if (this.state != newState && prooferCallbacks != null) {
-            prooferCallbacks.onStateChange(newState);
+    /**
+     * Opens the file for decoding a tile at a time if it's large, returning null otherwise.
+     */
+    private static TiledImage openIfLarge(File file) throws IOException {
+        TiledImage tiled = TiledImage.open(file, Config.TILE_CACHE_BYTES);
+        if ((long) tiled.getWidth() * tiled.getHeight() >= Config.TILED_IMAGE_MIN_PIXELS) {
+            return tiled;
         }
+        tiled.close();
+        return null;
+    }
 
-        this.state = newState;
+    private static BufferedImage readImage(File file) throws IOException {
+        BufferedImage bi = ImageIO.read(file);
+        if (bi == null) {
+            throw new IOException("Couldn't decode " + file);
+        }
+        return bi;
     }
 
-    public static class CannotConnectException extends ProoferException {
-        public CannotConnectException(Throwable throwable) {
-            super(throwable);
+    /**
+     * Loads the given files as a slideshow, showing the first one. Devices step through it with
+     * a gesture, and the desktop with {@link #navigate(int)}.
+     */
+    public void loadSlideshow(List<File> files) throws IOException {
+        if (files.isEmpty()) {
+            throw new IOException("No images to show.");
+        }
+
+        Slideshow newSlideshow = new Slideshow(files, Config.SLIDE_CACHE_BYTES,
+                slideshowCallbacks);
+        BufferedImage first = newSlideshow.getImage(0);
+        synchronized (imageLock) {
+            closeSlideshow();
+            slideshow = newSlideshow;
+            updateCacheLimits();
+            swapImage(files.get(0), first, null);
+            frameCache.clear();
         }
+        newSlideshow.start();
+        onSlideChanged(newSlideshow, 0);
     }
 
-    private class ProoferClient {
-        private Rectangle requestedSourceRegion = new Rectangle(0, 0, 0, 0);
-        private BufferedImage forcedImage;
-        private Robot robot;
-        private Rectangle screenBounds;
-        private Dimension currentDeviceSize = new Dimension();
+    /**
+     * Moves the given number of slides forward, or backward if negative, if a slideshow is
+     * loaded. A slide that can't be decoded is shown as nothing.
+     */
+    public void navigate(int delta) {
+        Slideshow current = slideshow;
+        if (current == null) {
+            return;
+        }
 
-        public ProoferClient() {
-            try {
-                this.robot = new Robot();
-            } catch (AWTException e) {
-                System.err.println("Error getting robot.");
-                e.printStackTrace();
-                System.exit(1);
+        int index;
+        synchronized (imageLock) {
+            if (current != slideshow) {
+                return;
             }
 
-            GraphicsEnvironment environment = GraphicsEnvironment.getLocalGraphicsEnvironment();
-            GraphicsDevice[] screenDevices = environment.getScreenDevices();
+            index = current.step(delta);
+            File slideFile = current.getFile(index);
+            if (slideFile.equals(file)) {
+                // Already at the end.
+                return;
+            }
 
-            Rectangle2D tempBounds = new Rectangle();
-            for (GraphicsDevice screenDevice : screenDevices) {
-                tempBounds = tempBounds.createUnion(
-                        screenDevice.getDefaultConfiguration().getBounds());
+            BufferedImage slide = null;
+            try {
+                slide = current.getImage(index);
+            } catch (IOException e) {
+                if (debug) {
+                    e.printStackTrace();
+                }
             }
-            screenBounds = tempBounds.getBounds();
+            swapImage(slideFile, slide, null);
         }
+        onSlideChanged(current, index);
+    }
 
-        public void setRequestedSourceRegion(Rectangle region) {
-            requestedSourceRegion = region;
+    private void onSlideChanged(Slideshow current, int index) {
+        if (debug) {
+            System.out.println("Slide " + (index + 1) + " of " + current.getCount() + ": "
+                    + current.getFile(index));
         }
+        if (prooferCallbacks != null) {
+            prooferCallbacks.onSlideChanged(index, current.getCount());
+        }
+    }
 
-        public void setImage(BufferedImage image) {
-            this.forcedImage = image;
+    /**
+     * Has every device scale and encode the slide for itself ahead of it being shown.
+     */
+    private void prefetch(BufferedImage slide) {
+        if (!isFileSourceType()) {
+            // The screen is being shown instead.
+            return;
         }
 
-        public void connectAndWaitForRequests() throws CannotConnectException {
-            Socket socket;
+        List<DeviceSession> targets;
+        synchronized (sessions) {
+            targets = new ArrayList<DeviceSession>(sessions.values());
+        }
+        for (DeviceSession session : targets) {
+            session.prefetch(slide);
+        }
+    }
 
-            // Establish the connection.
-            try {
-                socket = new Socket("localhost", Config.PORT_LOCAL);
-            } catch (IOException e) {
-                throw new CannotConnectException(e);
-            }
+    /**
+     * Gives the frame cache room for the neighbouring slides, ready to send to every device,
+     * while a slideshow is being shown, and only its usual few entries otherwise. Must be called
+     * with the image lock held.
+     */
+    private void updateCacheLimits() {
+        if (slideshow != null && isFileSourceType()) {
+            frameCache.setLimits(Integer.MAX_VALUE, Config.SLIDE_FRAME_CACHE_BYTES);
+        } else {
+            frameCache.setLimits(FrameCache.MAX_ENTRIES, Long.MAX_VALUE);
+        }
+    }
 
-            if (debug) {
-                System.out.println(
-                        "Local socket established " + socket.getRemoteSocketAddress().toString());
-            }
+    /**
+     * Must be called with the image lock held.
+     */
+    private void closeSlideshow() {
+        if (slideshow != null) {
+            slideshow.close();
+            slideshow = null;
+        }
+    }
 
-            // Wait for requests.
-            try {
-                DataInputStream dis = new DataInputStream(socket.getInputStream());
-                BufferedOutputStream bos = new BufferedOutputStream(socket.getOutputStream());
-                Dimension deviceSize = new Dimension();
-
-                while (true) {
-                    // Try processing a request.
-                    dis.readInt(); // unused x
-                    dis.readInt(); // unused y
-
-                    deviceSize.width = dis.readInt();
-                    deviceSize.height = dis.readInt();
-
-                    // If we reach this point, we didn't hit an IOException and we've received
-                    // a request from the device.
-
-                    if (!deviceSize.equals(currentDeviceSize) && prooferCallbacks != null) {
-                        prooferCallbacks.onDeviceSizeChanged(deviceSize);
-                        if (debug) {
-                            System.out.println("Got device size: " + currentDeviceSize.width
-                                    + "x" + currentDeviceSize.height);
-                        }
-                        currentDeviceSize = new Dimension(deviceSize);
-                    }
+    /**
+     * Loads the file again after it changed on disk, keeping the current version if the new one
+     * can't be loaded.
+     */
+    private void reloadFile(File file) {
+        if (!file.equals(this.file)) {
+            return;
+        }
 
-                    updateState(State.ConnectedActive);
-
-                    if (deviceSize.width > 1 && deviceSize.height > 1) {
-                        BufferedImage bi;
-                        if (SOURCE_TYPE_FILE.equals(sourceType)) {
-                            bi = forcedImage;
-                        } else {
-                            bi = capture();
-                        }
-
-                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-                        if (bi != null) {
-                            if (bi.getWidth() != currentDeviceSize.width ||
-                                    bi.getHeight() != currentDeviceSize.height) {
-                                // Scale the bitmap
-                                BufferedImage resized = new BufferedImage(
-                                        currentDeviceSize.width,
-                                        currentDeviceSize.height,
-                                        bi.getType());
-                                Graphics2D g2d = resized.createGraphics();
-                                g2d.setRenderingHint(
-                                        RenderingHints.KEY_INTERPOLATION,
-                                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-                                g2d.drawImage(
-                                        bi,
-                                        0, 0, currentDeviceSize.width, currentDeviceSize.height,
-                                        0, 0, bi.getWidth(), bi.getHeight(),
-                                        null);
-                                g2d.dispose();
-                                bi = resized;
-                            }
-
-                            ImageIO.write(bi, "PNG", baos);
-                        } else {
-                            baos.write(new byte[]{0});
-                        }
-
-                        byte[] out = baos.toByteArray();
-                        int len = out.length;
-                        byte[] outlen = new byte[4];
-                        outlen[0] = (byte) ((len >> 24) & 0xFF);
-                        outlen[1] = (byte) ((len >> 16) & 0xFF);
-                        outlen[2] = (byte) ((len >> 8) & 0xFF);
-                        outlen[3] = (byte) (len & 0xFF);
-
-                        if (debug) {
-                            System.out.println("Writing " + len + " bytes.");
-                        }
-
-                        bos.write(outlen, 0, 4);
-                        bos.write(out, 0, len);
-                        bos.flush();
+        try {
+            Slideshow current = slideshow;
+            if (current == null) {
+                TiledImage tiled = openIfLarge(file);
+                BufferedImage bi = (tiled == null) ? readImage(file) : null;
+                synchronized (imageLock) {
+                    if (slideshow == null && file.equals(this.file)) {
+                        swapImage(file, bi, tiled);
+                        return;
                     }
-
-                    // This loop will exit only when an IOException is thrown, indicating there's
-                    // nothing further to read.
                 }
-            } catch (IOException e) {
-                // If we're not "connected", this just means we haven't received any requests yet
-                // on the socket, so there's no error to log.
-                if (debug) {
-                    System.out.println("No activity.");
+                // Something else was loaded while this one was decoding.
+                if (tiled != null) {
+                    tiled.close();
                 }
+                return;
+            }
+
+            // Only the current slide is watched; the others are dropped from the cache when
+            // the slideshow is loaded again.
+            current.invalidate(file);
+            BufferedImage slide = current.getImage(current.getIndex());
+            synchronized (imageLock) {
+                if (current == slideshow && file.equals(this.file)) {
+                    swapImage(file, slide, null);
+                }
+            }
+        } catch (IOException e) {
+            if (debug) {
+                e.printStackTrace();
             }
+        }
+    }
 
-            // No (or no more) requests.
-            updateState(State.ConnectedIdle);
+    /**
+     * Shows a single image, closing any slideshow.
+     */
+    private void setImage(File file, BufferedImage image, TiledImage tiledImage) {
+        synchronized (imageLock) {
+            closeSlideshow();
+            updateCacheLimits();
+            swapImage(file, image, tiledImage);
+            frameCache.clear();
         }
+    }
 
-        private BufferedImage capture() {
-            Rectangle captureRect = new Rectangle(
-                    Math.max(screenBounds.x, requestedSourceRegion.x),
-                    Math.max(screenBounds.y, requestedSourceRegion.y),
-                    requestedSourceRegion.width,
-                    requestedSourceRegion.height);
+    /**
+     * Swaps in the new image. The new one is always set before the old one is cleared, so that
+     * sessions checking {@link #getImage()} and then {@link #getTiledImage()} always find one
+     * or the other. A session still reading an old tiled image when it's closed finds it
+     * closed and reads the new one instead. Devices showing the old image then get only the
+     * tiles that changed.
+     */
+    private void swapImage(File file, BufferedImage image, TiledImage tiledImage) {
+        TiledImage oldTiledImage = this.tiledImage;
+        this.file = file;
+        if (image != null) {
+            this.image = image;
+            this.tiledImage = tiledImage;
+        } else {
+            this.tiledImage = tiledImage;
+            this.image = image;
+        }
+        if (oldTiledImage != null && oldTiledImage != tiledImage) {
+            oldTiledImage.close();
+        }
+        fileWatcher.watch(file);
+    }
 
-            if (captureRect.x + captureRect.width > screenBounds.x + screenBounds.width) {
-                captureRect.x = screenBounds.x + screenBounds.width - captureRect.width;
-            }
+    /**
+     * Returns the loaded file's image, or null if there's none or it's a large one, for which
+     * see {@link #getTiledImage()}.
+     */
+    BufferedImage getImage() {
+        return image;
+    }
+
+    TiledImage getTiledImage() {
+        return tiledImage;
+    }
+
+    ScreenCapturer getScreenCapturer() {
+        return screenCapturer;
+    }
 
-            if (captureRect.y + captureRect.height > screenBounds.y + screenBounds.height) {
-                captureRect.y = screenBounds.y + screenBounds.height - captureRect.height;
+    FrameCache getFrameCache() {
+        return frameCache;
+    }
+
+    /**
+     * Recomputes the overall state from that of all sessions: active if any device is
+     * requesting frames, idle if any is connected.
+     */
+    void onSessionStateChanged(DeviceSession changed) {
+        State newState = State.Disconnected;
+        synchronized (sessions) {
+            for (DeviceSession session : sessions.values()) {
+                if (session.getState() == State.ConnectedActive) {
+                    newState = State.ConnectedActive;
+                    break;
+                } else if (session.getState() == State.ConnectedIdle) {
+                    newState = State.ConnectedIdle;
+                }
             }
+        }
+        updateState(newState);
+    }
 
-            long before = System.currentTimeMillis();
-            BufferedImage bi = robot.createScreenCapture(captureRect);
-            long after = System.currentTimeMillis();
+    void onSessionDeviceSizeChanged(DeviceSession session, Dimension size) {
+        if (prooferCallbacks != null) {
+            prooferCallbacks.onDeviceSizeChanged(size);
+        }
+    }
 
-            if (debug) {
-                System.out.println("Capture time: " + (after - before) + " msec");
+    void onSessionConnected(DeviceSession session, long reconnectMillis) {
+        if (debug) {
+            System.out.println("Device " + session.getSerial() + " connected in "
+                    + reconnectMillis + " ms");
+        }
+        if (prooferCallbacks != null) {
+            prooferCallbacks.onDeviceConnected(session.getSerial(), reconnectMillis);
+        }
+    }
+
+    private synchronized void updateState(State newState) {
+        if (this.state != newState && debug) {
+            switch (newState) {
+                case ConnectedActive:
+                    System.out.println("State: Connected and active");
+                    break;
+                case ConnectedIdle:
+                    System.out.println("State: Connected and idle");
+                    break;
+                case Disconnected:
+                    System.out.println("State: Disconnected");
+                    break;
             }
+        }
 
-            return bi;
+        if (this.state != newState && prooferCallbacks != null) {
+            prooferCallbacks.onStateChange(newState);
         }
+
+        this.state = newState;
     }
-}
 
+    public static class CannotConnectException extends ProoferException {
+        public CannotConnectException(Throwable throwable) {
+            super(throwable);
+        }
+    }
+}
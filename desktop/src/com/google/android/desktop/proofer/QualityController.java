@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+/**
+ * Picks how much to degrade the frames sent to one device so that they keep arriving within
+ * {@link Config#LATENCY_BUDGET_MILLIS}. Watches the round trip of each frame, from being
+ * written to being reported decoded, and the bytes it took, then steps through levels of
+ * lower JPEG quality, smaller scale and lower frame rate as the link or the device falls
+ * behind, and back up as they catch up. A level that doesn't make full frames noticeably
+ * smaller than the one above it, as JPEG may not for flat UI, is left again and not retried
+ * for a while.
+ *
+ * <p>Level 0 means no degradation: the connection's own codec at full size.
+ */
+public class QualityController {
+    // Per level, from best to worst. Quality 0 means the connection's own codec.
+    // Every degraded level is also scaled down, since JPEG alone doesn't reliably beat the
+    // other codecs on flat UI.
+    private static final float[] QUALITY = {0f, 0.8f, 0.65f, 0.5f};
+    private static final float[] SCALE = {1f, 0.75f, 0.6f, 0.5f};
+    private static final int[] FPS = {30, 24, 20, 15};
+
+    private static final int MIN_FPS = 5;
+
+    // How long to stay at a level before stepping down, or back up, again.
+    private static final long DEGRADE_HOLD_NANOS = 500 * 1000000L;
+    private static final long RECOVER_HOLD_NANOS = 2000 * 1000000L;
+
+    // How much smaller a level's full frames must be than the previous level's to be worth it,
+    // and for how long that comparison is trusted.
+    private static final double MIN_SHRINK = 0.9;
+    private static final long LEVEL_BYTES_EXPIRY_NANOS = 10000 * 1000000L;
+
+    // Weight of each new sample in the moving averages.
+    private static final double SMOOTHING = 0.25;
+
+    private static final int SLOTS = 8;
+
+    private final long budgetNanos;
+
+    // Frames written and not yet reported decoded, indexed by seq.
+    private final int[] slotSeq = new int[SLOTS];
+    private final long[] slotSentNanos = new long[SLOTS];
+    private final int[] slotBytes = new int[SLOTS];
+    private final int[] slotLevel = new int[SLOTS];
+
+    // Average size of full frames sent at each level, and when it was last updated.
+    private final double[] levelBytes = new double[QUALITY.length];
+    private final long[] levelBytesNanos = new long[QUALITY.length];
+
+    private int level;
+    private long levelSinceNanos = System.nanoTime();
+    private double averageRoundTripNanos;
+    private double averageBytes;
+    private double bytesPerSecond;
+
+    public QualityController(long budgetMillis) {
+        this.budgetNanos = budgetMillis * 1000000L;
+    }
+
+    /**
+     * @param frameLevel The level the frame was made at if it's a full frame, or -1 for tiles
+     *                   and other frames that say nothing about the level.
+     */
+    public synchronized void onFrameSent(int seq, int bytes, int frameLevel) {
+        int slot = seq % SLOTS;
+        slotSeq[slot] = seq;
+        slotSentNanos[slot] = System.nanoTime();
+        slotBytes[slot] = bytes;
+        slotLevel[slot] = frameLevel;
+    }
+
+    /**
+     * Called when the device reports having decoded the given frame. Returns whether the level
+     * changed.
+     */
+    public synchronized boolean onFrameDecoded(int seq) {
+        int slot = seq % SLOTS;
+        if (slotSeq[slot] != seq || slotSentNanos[slot] == 0) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        long roundTripNanos = now - slotSentNanos[slot];
+        slotSentNanos[slot] = 0;
+        if (averageRoundTripNanos == 0) {
+            averageRoundTripNanos = roundTripNanos;
+            averageBytes = slotBytes[slot];
+        } else {
+            averageRoundTripNanos += SMOOTHING * (roundTripNanos - averageRoundTripNanos);
+            averageBytes += SMOOTHING * (slotBytes[slot] - averageBytes);
+        }
+        bytesPerSecond = averageBytes * 1e9 / Math.max(1, averageRoundTripNanos);
+
+        int frameLevel = slotLevel[slot];
+        if (frameLevel >= 0) {
+            if (now - levelBytesNanos[frameLevel] > LEVEL_BYTES_EXPIRY_NANOS) {
+                levelBytes[frameLevel] = slotBytes[slot];
+            } else {
+                levelBytes[frameLevel] += SMOOTHING * (slotBytes[slot] - levelBytes[frameLevel]);
+            }
+            levelBytesNanos[frameLevel] = now;
+        }
+
+        long held = now - levelSinceNanos;
+        int newLevel = level;
+        if (level > 0 && held > DEGRADE_HOLD_NANOS && !shrinks(level, now)) {
+            newLevel = level - 1;
+        } else if (averageRoundTripNanos > budgetNanos) {
+            if (held > DEGRADE_HOLD_NANOS && level < QUALITY.length - 1
+                    && shrinks(level + 1, now)) {
+                newLevel = level + 1;
+            }
+        } else if (averageRoundTripNanos < budgetNanos / 2) {
+            if (held > RECOVER_HOLD_NANOS && level > 0) {
+                newLevel = level - 1;
+            }
+        }
+
+        if (newLevel == level) {
+            return false;
+        }
+        level = newLevel;
+        levelSinceNanos = now;
+        return true;
+    }
+
+    /**
+     * Whether full frames at the given level are known to be smaller than at the one above it,
+     * or it isn't known yet.
+     */
+    private boolean shrinks(int l, long now) {
+        if (now - levelBytesNanos[l] > LEVEL_BYTES_EXPIRY_NANOS
+                || now - levelBytesNanos[l - 1] > LEVEL_BYTES_EXPIRY_NANOS) {
+            return true;
+        }
+        return levelBytes[l] < levelBytes[l - 1] * MIN_SHRINK;
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the JPEG quality to use at the current level, or 0 for the connection's own codec.
+     */
+    public synchronized float getQuality() {
+        return QUALITY[level];
+    }
+
+    public synchronized float getScale() {
+        return SCALE[level];
+    }
+
+    /**
+     * Returns the frame rate to stream at: the level's, or less if the measured throughput
+     * can't carry frames of the recent average size that fast.
+     */
+    public synchronized int getTargetFps(int maxFps) {
+        int fps = Math.min(maxFps, FPS[level]);
+        if (level > 0 && averageBytes > 0) {
+            // Up to this many frames share each round trip.
+            double framesPerSecond = bytesPerSecond / averageBytes * Protocol.MAX_FRAMES_IN_FLIGHT;
+            fps = (int) Math.min(fps, framesPerSecond);
+        }
+        return Math.max(MIN_FPS, fps);
+    }
+
+    public synchronized double getRoundTripMillis() {
+        return averageRoundTripNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        String codec = (QUALITY[level] > 0) ? "jpeg:" + Math.round(QUALITY[level] * 100) : "full";
+        return String.format("level %d (%s, scale %.2f, %d fps), round trip %.1f msec, %.0f KB/s",
+                level, codec, SCALE[level], getTargetFps(Integer.MAX_VALUE), getRoundTripMillis(),
+                bytesPerSecond / 1024);
+    }
+}
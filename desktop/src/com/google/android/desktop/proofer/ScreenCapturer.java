@@ -0,0 +1,200 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Captures the requested screen region on its own thread at a fixed rate, so that screen
+ * capture overlaps with encoding and sending the previous frame instead of stalling it.
+ * Captures only run while someone has asked for a frame recently.
+ */
+public class ScreenCapturer {
+    private static final long IDLE_TIMEOUT_MILLIS = 1000;
+    private static final long FIRST_FRAME_TIMEOUT_MILLIS = 1000;
+
+    private boolean debug = Util.isDebug();
+
+    private Robot robot;
+    private Rectangle screenBounds;
+    private PipelineStats stats;
+
+    private volatile Rectangle requestedSourceRegion = new Rectangle(0, 0, 0, 0);
+    private volatile long frameIntervalMillis = 1000 / Config.CAPTURE_FPS;
+
+    private final TripleBuffer<CapturedFrame> buffer = new TripleBuffer<CapturedFrame>(
+            new CapturedFrame(), new CapturedFrame(), new CapturedFrame());
+    private long lastDemandTime;
+    private int publishedCount;
+
+    public static class CapturedFrame {
+        public BufferedImage image;
+        public long fingerprint;
+
+        private CapturedFrame() {
+        }
+
+        private CapturedFrame(BufferedImage image, long fingerprint) {
+            this.image = image;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    public ScreenCapturer(PipelineStats stats) {
+        this.stats = stats;
+
+        if (GraphicsEnvironment.isHeadless()) {
+            // No screen to capture, e.g. when load testing with a file source.
+            screenBounds = new Rectangle();
+            return;
+        }
+
+        try {
+            this.robot = new Robot();
+        } catch (AWTException e) {
+            System.err.println("Error getting robot.");
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        GraphicsEnvironment environment = GraphicsEnvironment.getLocalGraphicsEnvironment();
+        GraphicsDevice[] screenDevices = environment.getScreenDevices();
+
+        Rectangle2D tempBounds = new Rectangle();
+        for (GraphicsDevice screenDevice : screenDevices) {
+            tempBounds = tempBounds.createUnion(
+                    screenDevice.getDefaultConfiguration().getBounds());
+        }
+        screenBounds = tempBounds.getBounds();
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                captureLoop();
+            }
+        }, "ScreenCapturer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void setRequestedSourceRegion(Rectangle region) {
+        requestedSourceRegion = region;
+    }
+
+    public void setCaptureRate(int fps) {
+        frameIntervalMillis = 1000 / Math.max(1, fps);
+    }
+
+    /**
+     * Returns a snapshot of the most recently captured frame, or null if nothing has been
+     * captured yet. Safe to call from any number of threads, which then share the same capture.
+     * After a period without calls, this waits for a fresh capture rather than returning a
+     * stale one. Always returns null when running headless.
+     */
+    public CapturedFrame getLatestFrame() {
+        if (robot == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            boolean wasIdle = now - lastDemandTime > IDLE_TIMEOUT_MILLIS;
+            lastDemandTime = now;
+
+            if (wasIdle) {
+                notifyAll();
+                int target = publishedCount + 1;
+                long deadline = now + FIRST_FRAME_TIMEOUT_MILLIS;
+                while (publishedCount < target && now < deadline) {
+                    try {
+                        wait(deadline - now);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    now = System.currentTimeMillis();
+                }
+            }
+
+            // The slot itself gets reused for later captures, but the image in it doesn't.
+            buffer.update();
+            CapturedFrame front = buffer.getFront();
+            return (front.image != null) ? new CapturedFrame(front.image, front.fingerprint) : null;
+        }
+    }
+
+    private void captureLoop() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (System.currentTimeMillis() - lastDemandTime > IDLE_TIMEOUT_MILLIS) {
+                        wait();
+                    }
+                }
+
+                long start = System.currentTimeMillis();
+                try {
+                    capture(buffer.getBack());
+                    buffer.publish();
+                    synchronized (this) {
+                        publishedCount++;
+                        notifyAll();
+                    }
+                } catch (IllegalArgumentException e) {
+                    // Empty region, nothing to capture until it's changed.
+                    if (debug) {
+                        e.printStackTrace();
+                    }
+                }
+
+                long elapsed = System.currentTimeMillis() - start;
+                if (elapsed < frameIntervalMillis) {
+                    Thread.sleep(frameIntervalMillis - elapsed);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void capture(CapturedFrame frame) {
+        Rectangle region = requestedSourceRegion;
+        Rectangle captureRect = new Rectangle(
+                Math.max(screenBounds.x, region.x),
+                Math.max(screenBounds.y, region.y),
+                region.width,
+                region.height);
+
+        if (captureRect.x + captureRect.width > screenBounds.x + screenBounds.width) {
+            captureRect.x = screenBounds.x + screenBounds.width - captureRect.width;
+        }
+
+        if (captureRect.y + captureRect.height > screenBounds.y + screenBounds.height) {
+            captureRect.y = screenBounds.y + screenBounds.height - captureRect.height;
+        }
+
+        long before = System.nanoTime();
+        frame.image = robot.createScreenCapture(captureRect);
+        frame.fingerprint = FrameFingerprint.compute(frame.image);
+        long elapsed = System.nanoTime() - before;
+        stats.record(PipelineStats.Stage.Capture, elapsed);
+
+        if (debug) {
+            System.out.println("Capture time: " + (elapsed / 1000000) + " msec");
+        }
+    }
+}
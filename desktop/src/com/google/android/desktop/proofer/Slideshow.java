@@ -0,0 +1,255 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.android.desktop.proofer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * An ordered set of mockup files shown one at a time, such as the screens of a flow. Decoded
+ * slides are kept in an LRU cache under a byte budget, and whenever the current slide changes,
+ * its neighbours are decoded on a background thread and handed to the callbacks, so that they
+ * can be scaled and encoded before anyone steps onto them.
+ *
+ * <p>The same instance is handed out for a slide for as long as it stays cached, as
+ * {@link FrameCache} and devices rely on source identity.
+ */
+public class Slideshow {
+    // Neighbours to prefetch, nearest first, in the direction of travel.
+    private static final int[] PREFETCH_OFFSETS = {1, -1, 2};
+
+    private boolean debug = Util.isDebug();
+
+    private final List<File> files;
+    private final long maxCacheBytes;
+    private final SlideshowCallbacks callbacks;
+    private Thread thread;
+
+    // Guarded by this.
+    private int index;
+    private int direction = 1;
+    // Bumped on every step, so the prefetch thread can tell its neighbours are out of date.
+    private int generation;
+    private boolean closed;
+    private long cacheBytes;
+    private final Map<File, BufferedImage> slides = new LinkedHashMap<File, BufferedImage>(
+            16, 0.75f, true);
+
+    public static interface SlideshowCallbacks {
+        /**
+         * Called on the prefetch thread with each neighbouring slide once it's decoded.
+         */
+        public void onSlidePrefetched(BufferedImage image);
+    }
+
+    /**
+     * @param files The slides, in order. Must not be empty.
+     */
+    public Slideshow(List<File> files, long maxCacheBytes, SlideshowCallbacks callbacks) {
+        this.files = new ArrayList<File>(files);
+        this.maxCacheBytes = maxCacheBytes;
+        this.callbacks = callbacks;
+    }
+
+    /**
+     * Returns the images in the given directory, sorted by name.
+     */
+    public static List<File> listImages(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && isImage(file);
+            }
+        });
+        if (files == null) {
+            return Collections.emptyList();
+        }
+
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    public static boolean isImage(File file) {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".png")
+                || name.endsWith(".jpg")
+                || name.endsWith(".gif")
+                || name.endsWith(".jpeg");
+    }
+
+    public void start() {
+        thread = new Thread(new Runnable() {
+            public void run() {
+                prefetchLoop();
+            }
+        }, "Slideshow");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        slides.clear();
+        cacheBytes = 0;
+        notifyAll();
+    }
+
+    public int getCount() {
+        return files.size();
+    }
+
+    public synchronized int getIndex() {
+        return index;
+    }
+
+    public File getFile(int index) {
+        return files.get(index);
+    }
+
+    /**
+     * Moves the given number of slides forward, or backward if negative, stopping at either
+     * end. Returns the new index.
+     */
+    public synchronized int step(int delta) {
+        int newIndex = Math.max(0, Math.min(files.size() - 1, index + delta));
+        if (newIndex != index) {
+            direction = (newIndex > index) ? 1 : -1;
+            index = newIndex;
+            ++generation;
+            notifyAll();
+        }
+        return index;
+    }
+
+    /**
+     * Returns the decoded slide, decoding it on the calling thread if it isn't cached.
+     */
+    public BufferedImage getImage(int index) throws IOException {
+        File file = files.get(index);
+        synchronized (this) {
+            BufferedImage image = slides.get(file);
+            if (image != null) {
+                return image;
+            }
+        }
+
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Couldn't decode " + file);
+        }
+
+        synchronized (this) {
+            // Someone else may have decoded it meanwhile, in which case theirs is the one that
+            // may have been handed out already.
+            BufferedImage cached = slides.get(file);
+            if (cached != null) {
+                return cached;
+            }
+            if (!closed) {
+                slides.put(file, image);
+                cacheBytes += Util.getImageBytes(image);
+                trimCache();
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Drops the slide decoded from the given file, e.g. because the file changed. Returns
+     * whether the file is part of the slideshow.
+     */
+    public synchronized boolean invalidate(File file) {
+        BufferedImage image = slides.remove(file);
+        if (image != null) {
+            cacheBytes -= Util.getImageBytes(image);
+        }
+        return files.contains(file);
+    }
+
+    /**
+     * Evicts the least recently used slides until the cache fits its budget, never evicting
+     * the current one. Must be called with the slideshow locked.
+     */
+    private void trimCache() {
+        File current = files.get(index);
+        Iterator<Map.Entry<File, BufferedImage>> it = slides.entrySet().iterator();
+        while (cacheBytes > maxCacheBytes && it.hasNext()) {
+            Map.Entry<File, BufferedImage> entry = it.next();
+            if (!entry.getKey().equals(current)) {
+                cacheBytes -= Util.getImageBytes(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    private void prefetchLoop() {
+        int seenGeneration = -1;
+        while (true) {
+            int center;
+            int towards;
+            synchronized (this) {
+                try {
+                    while (!closed && generation == seenGeneration) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (closed) {
+                    return;
+                }
+                seenGeneration = generation;
+                center = index;
+                towards = direction;
+            }
+
+            for (int offset : PREFETCH_OFFSETS) {
+                int neighbour = center + offset * towards;
+                if (neighbour < 0 || neighbour >= files.size()) {
+                    continue;
+                }
+
+                synchronized (this) {
+                    if (closed || generation != seenGeneration) {
+                        // Start over around the new current slide.
+                        break;
+                    }
+                }
+
+                try {
+                    callbacks.onSlidePrefetched(getImage(neighbour));
+                } catch (IOException e) {
+                    if (debug) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+}
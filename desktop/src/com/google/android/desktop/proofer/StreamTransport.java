@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * The original blocking socket transport, kept as a fallback for {@link ChannelTransport}.
+ */
+public class StreamTransport implements FrameTransport {
+    private Socket socket;
+    private DataInputStream input;
+    private DataOutputStream output;
+
+    public StreamTransport(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        input = new DataInputStream(socket.getInputStream());
+        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public DataInputStream getInput() {
+        return input;
+    }
+
+    public void write(int[] header, int headerCount, byte[] payload, int payloadLength)
+            throws IOException {
+        for (int i = 0; i < headerCount; i++) {
+            output.writeInt(header[i]);
+        }
+        if (payloadLength > 0) {
+            output.write(payload, 0, payloadLength);
+        }
+        output.flush();
+    }
+
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers the pixels of the last frame sent to a device and finds which fixed-size tiles of
+ * a new frame differ from it.
+ */
+public class TileDiffer {
+    public static final int TILE_SIZE = 64;
+
+    private int width;
+    private int height;
+    private int[] reference;
+    private int[] scratch;
+
+    public void reset() {
+        reference = null;
+    }
+
+    /**
+     * Returns the tiles of the given frame that differ from the previous one, or null if there
+     * is no previous frame of the same size to compare against. Either way, the given frame
+     * becomes the reference for the next call.
+     */
+    public List<Rectangle> diff(BufferedImage frame) {
+        int w = frame.getWidth();
+        int h = frame.getHeight();
+
+        if (reference == null || w != width || h != height) {
+            width = w;
+            height = h;
+            reference = new int[w * h];
+            copyPixels(frame, reference);
+            return null;
+        }
+
+        int[] pixels = getPixels(frame);
+        List<Rectangle> dirtyTiles = new ArrayList<Rectangle>();
+        for (int ty = 0; ty < h; ty += TILE_SIZE) {
+            int th = Math.min(TILE_SIZE, h - ty);
+            for (int tx = 0; tx < w; tx += TILE_SIZE) {
+                int tw = Math.min(TILE_SIZE, w - tx);
+                if (tileDiffers(pixels, tx, ty, tw, th)) {
+                    dirtyTiles.add(new Rectangle(tx, ty, tw, th));
+                    for (int y = ty; y < ty + th; y++) {
+                        System.arraycopy(pixels, y * w + tx, reference, y * w + tx, tw);
+                    }
+                }
+            }
+        }
+        return dirtyTiles;
+    }
+
+    public int getTileCount() {
+        return ((width + TILE_SIZE - 1) / TILE_SIZE) * ((height + TILE_SIZE - 1) / TILE_SIZE);
+    }
+
+    private boolean tileDiffers(int[] pixels, int tx, int ty, int tw, int th) {
+        for (int y = ty; y < ty + th; y++) {
+            int offset = y * width + tx;
+            for (int i = offset; i < offset + tw; i++) {
+                if (pixels[i] != reference[i]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the frame's pixels as a packed array of width * height ints, without copying
+     * when the frame is already laid out that way.
+     */
+    private int[] getPixels(BufferedImage frame) {
+        int[] pixels = Util.getPackedPixels(frame);
+        if (pixels != null) {
+            return pixels;
+        }
+
+        if (scratch == null || scratch.length != width * height) {
+            scratch = new int[width * height];
+        }
+        frame.getRGB(0, 0, width, height, scratch, 0, width);
+        return scratch;
+    }
+
+    private void copyPixels(BufferedImage frame, int[] to) {
+        System.arraycopy(getPixels(frame), 0, to, 0, to.length);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An image file too large to keep decoded in memory. Tiles of it are decoded as they're
+ * needed, using source regions, and kept in an LRU cache under a byte budget. Devices get
+ * either the region they're panned to, assembled from tiles, or a reduced resolution version
+ * decoded with subsampling.
+ *
+ * <p>Both kinds of view are kept for as long as they're among the few most recently asked
+ * for, and the same instance is handed out for the same region or size, as {@link FrameCache}
+ * and devices rely on source identity to tell when a frame has changed.
+ */
+public class TiledImage {
+    public static final int TILE_SIZE = 512;
+    private static final int MAX_VIEWS = 4;
+
+    private final int width;
+    private final int height;
+    private final boolean hasAlpha;
+    private final long maxCacheBytes;
+
+    // Guarded by this.
+    private ImageInputStream input;
+    private ImageReader reader;
+    private long cacheBytes;
+    private final Map<Point, BufferedImage> tiles = new LinkedHashMap<Point, BufferedImage>(
+            16, 0.75f, true);
+    private final Map<Object, BufferedImage> views = new LinkedHashMap<Object, BufferedImage>(
+            MAX_VIEWS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, BufferedImage> eldest) {
+            return size() > MAX_VIEWS;
+        }
+    };
+
+    private TiledImage(ImageInputStream input, ImageReader reader, long maxCacheBytes)
+            throws IOException {
+        this.input = input;
+        this.reader = reader;
+        this.maxCacheBytes = maxCacheBytes;
+        width = reader.getWidth(0);
+        height = reader.getHeight(0);
+
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        hasAlpha = types.hasNext() && types.next().getColorModel().hasAlpha();
+    }
+
+    /**
+     * Opens the file without decoding any of it yet.
+     */
+    public static TiledImage open(File file, long maxCacheBytes) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Couldn't open " + file);
+        }
+
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unknown image format: " + file);
+        }
+
+        ImageReader reader = readers.next();
+        reader.setInput(input, true, true);
+        try {
+            return new TiledImage(input, reader, maxCacheBytes);
+        } catch (IOException e) {
+            reader.dispose();
+            input.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the given region of the image, which must lie within it, at its actual size.
+     */
+    public synchronized BufferedImage getRegion(Rectangle region) throws IOException {
+        Rectangle key = new Rectangle(region);
+        BufferedImage view = views.get(key);
+        if (view != null) {
+            return view;
+        }
+
+        int firstColumn = region.x / TILE_SIZE;
+        int lastColumn = (region.x + region.width - 1) / TILE_SIZE;
+        int firstRow = region.y / TILE_SIZE;
+        int lastRow = (region.y + region.height - 1) / TILE_SIZE;
+
+        view = new BufferedImage(region.width, region.height, getType());
+        Graphics2D g2d = view.createGraphics();
+        try {
+            g2d.setComposite(AlphaComposite.Src);
+            decodeMissingTiles(firstColumn, firstRow, lastColumn, lastRow);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    g2d.drawImage(tiles.get(new Point(column, row)),
+                            column * TILE_SIZE - region.x, row * TILE_SIZE - region.y, null);
+                }
+            }
+        } finally {
+            g2d.dispose();
+        }
+
+        // Only now, so that the tiles of this view can't evict each other.
+        trimTiles();
+        views.put(key, view);
+        return view;
+    }
+
+    /**
+     * Returns the whole image at no less than twice the given size, but otherwise as small as
+     * subsampling while decoding can make it, for scaling down to that size.
+     */
+    public synchronized BufferedImage getPreview(Dimension size) throws IOException {
+        Dimension key = new Dimension(size);
+        BufferedImage view = views.get(key);
+        if (view != null) {
+            return view;
+        }
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(
+                Math.max(1, width / (size.width * 2)),
+                Math.max(1, height / (size.height * 2)),
+                0, 0);
+        view = reader.read(0, param);
+        views.put(key, view);
+        return view;
+    }
+
+    public synchronized boolean isClosed() {
+        return reader == null;
+    }
+
+    /**
+     * Drops everything decoded and closes the file.
+     */
+    public synchronized void close() {
+        tiles.clear();
+        views.clear();
+        cacheBytes = 0;
+        if (reader != null) {
+            reader.dispose();
+            reader = null;
+        }
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+            input = null;
+        }
+    }
+
+    /**
+     * Decodes the tiles in the given range that aren't cached yet, all in one pass over the
+     * file, since formats like PNG can only be decoded from the top.
+     */
+    private void decodeMissingTiles(int firstColumn, int firstRow, int lastColumn, int lastRow)
+            throws IOException {
+        Rectangle missing = null;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                if (!tiles.containsKey(new Point(column, row))) {
+                    Rectangle tile = new Rectangle(column, row, 1, 1);
+                    missing = (missing == null) ? tile : missing.union(tile);
+                }
+            }
+        }
+        if (missing == null) {
+            return;
+        }
+
+        if (reader == null) {
+            throw new IOException("Image closed");
+        }
+
+        Rectangle area = new Rectangle(missing.x * TILE_SIZE, missing.y * TILE_SIZE, 0, 0);
+        area.width = Math.min((missing.x + missing.width) * TILE_SIZE, width) - area.x;
+        area.height = Math.min((missing.y + missing.height) * TILE_SIZE, height) - area.y;
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(area);
+        BufferedImage decoded = reader.read(0, param);
+
+        for (int row = missing.y; row < missing.y + missing.height; row++) {
+            for (int column = missing.x; column < missing.x + missing.width; column++) {
+                Point key = new Point(column, row);
+                if (tiles.containsKey(key)) {
+                    continue;
+                }
+
+                int x = column * TILE_SIZE - area.x;
+                int y = row * TILE_SIZE - area.y;
+                int w = Math.min(TILE_SIZE, area.width - x);
+                int h = Math.min(TILE_SIZE, area.height - y);
+                BufferedImage tile = new BufferedImage(w, h, getType());
+                Graphics2D g2d = tile.createGraphics();
+                g2d.setComposite(AlphaComposite.Src);
+                g2d.drawImage(decoded, -x, -y, null);
+                g2d.dispose();
+
+                tiles.put(key, tile);
+                cacheBytes += 4L * w * h;
+            }
+        }
+    }
+
+    private void trimTiles() {
+        Iterator<BufferedImage> it = tiles.values().iterator();
+        while (cacheBytes > maxCacheBytes && it.hasNext()) {
+            BufferedImage tile = it.next();
+            cacheBytes -= 4L * tile.getWidth() * tile.getHeight();
+            it.remove();
+        }
+    }
+
+    private int getType() {
+        return hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+}
@@ -17,6 +17,10 @@
 package com.google.android.desktop.proofer;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -34,6 +38,42 @@ public class Util {
         return "1".equals(System.getenv("PROOFER_DEBUG"));
     }
 
+    public static String getCodecName() {
+        String codecName = System.getenv("PROOFER_CODEC");
+        return (codecName != null) ? codecName : "png";
+    }
+
+    /**
+     * Whether to lower the quality of frames sent to devices that fall behind. On unless
+     * PROOFER_ADAPTIVE is 0.
+     */
+    public static boolean isAdaptive() {
+        return !"0".equals(System.getenv("PROOFER_ADAPTIVE"));
+    }
+
+    /**
+     * Returns "nio" (the default) for {@link ChannelTransport} or "stream" for
+     * {@link StreamTransport}.
+     */
+    public static String getTransportName() {
+        String transportName = System.getenv("PROOFER_TRANSPORT");
+        return (transportName != null) ? transportName : "nio";
+    }
+
+    /**
+     * Returns the socket send buffer size to ask for, in bytes, or 0 for the system default.
+     */
+    public static int getSendBufferSize() {
+        String size = System.getenv("PROOFER_SEND_BUFFER");
+        if (size != null) {
+            try {
+                return Integer.parseInt(size);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return Config.SEND_BUFFER_SIZE;
+    }
+
     public static boolean extractResource(String path, File to) {
         try {
             InputStream in = Util.class.getClassLoader().getResourceAsStream(path);
@@ -61,6 +101,39 @@ public class Util {
         return true;
     }
 
+    /**
+     * Returns the backing array of an INT_RGB or INT_ARGB image whose pixels are packed
+     * row after row with no padding, or null if the image isn't laid out that way.
+     */
+    public static int[] getPackedPixels(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+
+        if (image.getRaster().getParent() != null
+                || image.getRaster().getDataBuffer().getOffset() != 0) {
+            return null;
+        }
+
+        SinglePixelPackedSampleModel sampleModel =
+                (SinglePixelPackedSampleModel) image.getSampleModel();
+        if (sampleModel.getScanlineStride() != image.getWidth()) {
+            return null;
+        }
+
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Returns how much memory the image's pixels take up.
+     */
+    public static long getImageBytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
     public static Image[] getAppIconMipmap() {
         try {
             return new Image[]{
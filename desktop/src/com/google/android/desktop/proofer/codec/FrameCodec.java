@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.codec;
+
+import com.google.android.desktop.proofer.Protocol;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Encodes frames (or tiles of frames) for the wire. The Android viewer has a matching decoder
+ * for each codec id.
+ */
+public abstract class FrameCodec {
+    public static FrameCodec getCodec(int id) {
+        switch (id) {
+            case Protocol.CODEC_PNG:
+                return new PngCodec();
+            case Protocol.CODEC_JPEG:
+                return new JpegCodec(JpegCodec.DEFAULT_QUALITY);
+            case Protocol.CODEC_RGB565:
+                return new Rgb565Codec();
+            case Protocol.CODEC_RGB565_LZ4:
+                return new Lz4Rgb565Codec();
+        }
+        throw new IllegalArgumentException("Unknown codec " + id);
+    }
+
+    /**
+     * Parses a codec name such as "png", "jpeg", "jpeg:60", "rgb565" or "rgb565-lz4", returning
+     * null if it isn't recognized.
+     */
+    public static FrameCodec forName(String name) {
+        if (name == null) {
+            return null;
+        }
+
+        name = name.trim().toLowerCase();
+        if ("png".equals(name)) {
+            return new PngCodec();
+        } else if ("rgb565".equals(name)) {
+            return new Rgb565Codec();
+        } else if ("rgb565-lz4".equals(name)) {
+            return new Lz4Rgb565Codec();
+        } else if (name.startsWith("jpeg") || name.startsWith("jpg")) {
+            int colon = name.indexOf(':');
+            if (colon < 0) {
+                return new JpegCodec(JpegCodec.DEFAULT_QUALITY);
+            }
+            try {
+                return new JpegCodec(Integer.parseInt(name.substring(colon + 1)) / 100f);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public abstract int getId();
+
+    /**
+     * Returns the codec's name and settings in the form accepted by {@link #forName(String)},
+     * so that two codecs with the same name produce the same output.
+     */
+    public abstract String getName();
+
+    public abstract void encode(BufferedImage image, OutputStream out) throws IOException;
+
+    /**
+     * Decodes a frame written by {@link #encode(BufferedImage, OutputStream)}, the way the
+     * viewer would.
+     */
+    public abstract BufferedImage decode(byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Whether the decoded frame is pixel-identical to the encoded one.
+     */
+    public abstract boolean isLossless();
+
+    /**
+     * Decodes with ImageIO, for codecs using a format it knows.
+     */
+    protected static BufferedImage decodeImageIO(byte[] data, int offset, int length)
+            throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(data, offset, length));
+        if (image == null) {
+            throw new IOException("Couldn't decode frame");
+        }
+        return image;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
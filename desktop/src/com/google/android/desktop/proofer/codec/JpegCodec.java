@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.codec;
+
+import com.google.android.desktop.proofer.Protocol;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+public class JpegCodec extends FrameCodec {
+    public static final float DEFAULT_QUALITY = 0.85f;
+
+    private float quality;
+    private ImageWriter writer;
+    private ImageWriteParam param;
+
+    public JpegCodec(float quality) {
+        this.quality = Math.max(0f, Math.min(1f, quality));
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    @Override
+    public int getId() {
+        return Protocol.CODEC_JPEG;
+    }
+
+    @Override
+    public String getName() {
+        return "jpeg:" + Math.round(quality * 100);
+    }
+
+    @Override
+    public void encode(BufferedImage image, OutputStream out) throws IOException {
+        if (writer == null) {
+            writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+
+        if (image.getColorModel().hasAlpha()) {
+            // JPEG has no alpha channel.
+            BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(),
+                    BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = opaque.createGraphics();
+            g2d.drawImage(image, 0, 0, null);
+            g2d.dispose();
+            image = opaque;
+        }
+
+        ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+        try {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            ios.close();
+        }
+    }
+
+    @Override
+    public BufferedImage decode(byte[] data, int offset, int length) throws IOException {
+        return decodeImageIO(data, offset, length);
+    }
+
+    @Override
+    public boolean isLossless() {
+        return false;
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A small, greedy compressor producing the LZ4 block format. It trades some ratio for speed
+ * and only needs a fixed hash table, which is reused between calls. Also decompresses, like
+ * the viewer does.
+ */
+public class Lz4 {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 14;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses src[srcOff..srcOff+srcLen) into dst at dstOff, which must have room for
+     * {@link #maxCompressedLength(int)} bytes. Returns the compressed length.
+     */
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int srcEnd = srcOff + srcLen;
+        int matchLimit = srcEnd - LAST_LITERALS;
+        int mfLimit = srcEnd - MF_LIMIT;
+
+        int ip = srcOff;
+        int anchor = srcOff;
+        int op = dstOff;
+
+        Arrays.fill(hashTable, -1);
+
+        while (ip < mfLimit) {
+            int sequence = readInt(src, ip);
+            int h = hash(sequence);
+            int ref = hashTable[h];
+            hashTable[h] = ip;
+
+            if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                ip++;
+                continue;
+            }
+
+            // Extend the match backwards over pending literals, then forwards.
+            while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (ip + matchLength < matchLimit
+                    && src[ip + matchLength] == src[ref + matchLength]) {
+                matchLength++;
+            }
+
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+            ip += matchLength;
+            anchor = ip;
+        }
+
+        // Whatever is left goes out as literals.
+        int literalLength = srcEnd - anchor;
+        int token = Math.min(literalLength, 15) << 4;
+        dst[op++] = (byte) token;
+        op = writeLength(literalLength - 15, dst, op);
+        System.arraycopy(src, anchor, dst, op, literalLength);
+        op += literalLength;
+
+        return op - dstOff;
+    }
+
+    /**
+     * Decompresses src[srcOff..srcOff+srcLen) into dst at dstOff, writing at most dstLen bytes.
+     * Returns the decompressed length.
+     */
+    public static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff,
+            int dstLen) throws IOException {
+        int ip = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int op = dstOff;
+        int dstEnd = dstOff + dstLen;
+
+        try {
+            while (ip < srcEnd) {
+                int token = src[ip++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+
+                if (ip + literalLength > srcEnd || op + literalLength > dstEnd) {
+                    throw new IOException("Corrupt LZ4 block");
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+
+                if (ip >= srcEnd) {
+                    // The last sequence has no match.
+                    break;
+                }
+
+                int offset = (src[ip] & 0xFF) | ((src[ip + 1] & 0xFF) << 8);
+                ip += 2;
+
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = op - offset;
+                if (offset == 0 || ref < dstOff || op + matchLength > dstEnd) {
+                    throw new IOException("Corrupt LZ4 block");
+                }
+
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // Overlapping match, copy byte by byte.
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 block");
+        }
+
+        return op - dstOff;
+    }
+
+    private static int writeSequence(byte[] src, int literalOff, int literalLength,
+            int offset, int matchLength, byte[] dst, int op) {
+        int tokenOff = op++;
+        int token = Math.min(literalLength, 15) << 4;
+        op = writeLength(literalLength - 15, dst, op);
+        System.arraycopy(src, literalOff, dst, op, literalLength);
+        op += literalLength;
+
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >> 8);
+
+        int extraMatch = matchLength - MIN_MATCH;
+        token |= Math.min(extraMatch, 15);
+        op = writeLength(extraMatch - 15, dst, op);
+
+        dst[tokenOff] = (byte) token;
+        return op;
+    }
+
+    /**
+     * Writes the continuation bytes of a length field whose token nibble saturated at 15.
+     * Does nothing when the remainder is negative, i.e. the nibble alone held the length.
+     */
+    private static int writeLength(int remainder, byte[] dst, int op) {
+        if (remainder < 0) {
+            return op;
+        }
+        while (remainder >= 255) {
+            dst[op++] = (byte) 255;
+            remainder -= 255;
+        }
+        dst[op++] = (byte) remainder;
+        return op;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8)
+                | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+}
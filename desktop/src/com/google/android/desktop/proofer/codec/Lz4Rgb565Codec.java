@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.codec;
+
+import com.google.android.desktop.proofer.Protocol;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link Rgb565Codec} pixels compressed with {@link Lz4}: an int width, height and
+ * uncompressed length followed by the compressed block. Flat mockup areas compress very well
+ * and both directions are far cheaper than PNG.
+ */
+public class Lz4Rgb565Codec extends Rgb565Codec {
+    private Lz4 lz4 = new Lz4();
+    private byte[] compressed;
+    private byte[] decompressed;
+
+    @Override
+    public int getId() {
+        return Protocol.CODEC_RGB565_LZ4;
+    }
+
+    @Override
+    public String getName() {
+        return "rgb565-lz4";
+    }
+
+    @Override
+    public void encode(BufferedImage image, OutputStream out) throws IOException {
+        int length = toRgb565(image);
+
+        int maxLength = Lz4.maxCompressedLength(length);
+        if (compressed == null || compressed.length < maxLength) {
+            compressed = new byte[maxLength];
+        }
+        int compressedLength = lz4.compress(getPixelBytes(), 0, length, compressed, 0);
+
+        writeHeader(out, image.getWidth(), image.getHeight());
+        writeInt(out, length);
+        out.write(compressed, 0, compressedLength);
+    }
+
+    @Override
+    public BufferedImage decode(byte[] data, int offset, int length) throws IOException {
+        int width = readInt(data, offset);
+        int height = readInt(data, offset + 4);
+        int pixelLength = readInt(data, offset + 8);
+        if (width <= 0 || height <= 0 || pixelLength != width * height * 2) {
+            throw new IOException("Bad RGB565 LZ4 frame header");
+        }
+
+        if (decompressed == null || decompressed.length < pixelLength) {
+            decompressed = new byte[pixelLength];
+        }
+        if (Lz4.decompress(data, offset + 12, length - 12, decompressed, 0, pixelLength)
+                != pixelLength) {
+            throw new IOException("Truncated RGB565 LZ4 frame");
+        }
+        return fromRgb565(decompressed, 0, width, height);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.codec;
+
+import com.google.android.desktop.proofer.Protocol;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.ImageIO;
+
+public class PngCodec extends FrameCodec {
+    @Override
+    public int getId() {
+        return Protocol.CODEC_PNG;
+    }
+
+    @Override
+    public String getName() {
+        return "png";
+    }
+
+    @Override
+    public void encode(BufferedImage image, OutputStream out) throws IOException {
+        ImageIO.write(image, "PNG", out);
+    }
+
+    @Override
+    public BufferedImage decode(byte[] data, int offset, int length) throws IOException {
+        return decodeImageIO(data, offset, length);
+    }
+
+    @Override
+    public boolean isLossless() {
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.codec;
+
+import com.google.android.desktop.proofer.Protocol;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Uncompressed 16-bit pixels: an int width and height followed by one little-endian RGB565
+ * short per pixel, which is exactly the layout of an Android RGB_565 bitmap. Costs almost
+ * nothing to encode or decode, at the price of bandwidth and some color precision.
+ */
+public class Rgb565Codec extends FrameCodec {
+    private int[] rowPixels;
+    private byte[] pixelBytes;
+
+    @Override
+    public int getId() {
+        return Protocol.CODEC_RGB565;
+    }
+
+    @Override
+    public String getName() {
+        return "rgb565";
+    }
+
+    @Override
+    public void encode(BufferedImage image, OutputStream out) throws IOException {
+        int length = toRgb565(image);
+        writeHeader(out, image.getWidth(), image.getHeight());
+        out.write(pixelBytes, 0, length);
+    }
+
+    @Override
+    public BufferedImage decode(byte[] data, int offset, int length) throws IOException {
+        int width = readInt(data, offset);
+        int height = readInt(data, offset + 4);
+        if (width <= 0 || height <= 0 || length - 8 < width * height * 2) {
+            throw new IOException("Truncated RGB565 frame");
+        }
+        return fromRgb565(data, offset + 8, width, height);
+    }
+
+    @Override
+    public boolean isLossless() {
+        return false;
+    }
+
+    /**
+     * Converts the image into {@link #getPixelBytes()}, returning the number of bytes used.
+     */
+    protected int toRgb565(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int length = width * height * 2;
+
+        if (rowPixels == null || rowPixels.length < width) {
+            rowPixels = new int[width];
+        }
+        if (pixelBytes == null || pixelBytes.length < length) {
+            pixelBytes = new byte[length];
+        }
+
+        int o = 0;
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, rowPixels, 0, width);
+            for (int x = 0; x < width; x++) {
+                int argb = rowPixels[x];
+                int rgb565 = ((argb >> 8) & 0xF800) | ((argb >> 5) & 0x07E0) | ((argb >> 3) & 0x1F);
+                pixelBytes[o++] = (byte) rgb565;
+                pixelBytes[o++] = (byte) (rgb565 >> 8);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Expands little-endian RGB565 pixels back into an RGB image.
+     */
+    protected static BufferedImage fromRgb565(byte[] data, int offset, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        int i = offset;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb565 = (data[i] & 0xFF) | ((data[i + 1] & 0xFF) << 8);
+                i += 2;
+                int r = (rgb565 >> 11) & 0x1F;
+                int g = (rgb565 >> 5) & 0x3F;
+                int b = rgb565 & 0x1F;
+                row[x] = (((r << 3) | (r >> 2)) << 16) | (((g << 2) | (g >> 4)) << 8)
+                        | ((b << 3) | (b >> 2));
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    protected byte[] getPixelBytes() {
+        return pixelBytes;
+    }
+
+    protected static void writeHeader(OutputStream out, int width, int height)
+            throws IOException {
+        writeInt(out, width);
+        writeInt(out, height);
+    }
+
+    protected static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    protected static void writeInt(OutputStream out, int value) throws IOException {
+        out.write((value >> 24) & 0xFF);
+        out.write((value >> 16) & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.sim;
+
+import com.google.android.desktop.proofer.Config;
+import com.google.android.desktop.proofer.DeviceSession;
+import com.google.android.desktop.proofer.Proofer;
+import com.google.android.desktop.proofer.codec.FrameCodec;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load tests the desktop side without a phone, by serving any number of {@link SimulatedDevice}s
+ * at once. By default it also runs the desktop side in loopback, headless, mirroring a
+ * synthetic animated mockup; with -listen it only runs the devices, e.g. to point a separately
+ * started desktop at them. Run with:
+ *
+ * <pre>java -cp ProoferDesktop.jar com.google.android.desktop.proofer.sim.LoadTest [options]
+ *     [WxH ...]</pre>
+ */
+public class LoadTest {
+    private static final String USAGE = "Usage: LoadTest [options] [WxH ...]\n"
+            + "  -n <count>        number of devices, cycling through the sizes given\n"
+            + "                    (default: one per size, 720x1280 if none)\n"
+            + "  -port <port>      first port, one per device (default: "
+            + Config.PORT_LOCAL + ", or " + Config.PORT_DEVICE + " with -listen)\n"
+            + "  -listen           only run the devices, not the desktop side\n"
+            + "  -request          request frames instead of streaming\n"
+            + "  -notiles          don't accept tile updates\n"
+            + "  -noadaptive       don't accept degraded frames\n"
+            + "  -throttle <KB/s>  how fast each device reads frames (default: unlimited)\n"
+            + "  -codecs <names>   comma-separated codecs the devices support (default: all)\n"
+            + "  -codec <name>     codec the desktop prefers (default: png)\n"
+            + "  -actualsize       show the source unscaled rather than scaled to fit\n"
+            + "  -source <WxH>     size of the synthetic source (default: 1080x1920)\n"
+            + "  -fps <fps>        how often the source changes (default: 30)\n"
+            + "  -seconds <n>      how long to run (default: 30)";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        List<Dimension> sizes = new ArrayList<Dimension>();
+        int count = 0;
+        int port = 0;
+        boolean listen = false;
+        boolean request = false;
+        boolean tiles = true;
+        boolean adaptive = true;
+        boolean actualSize = false;
+        int throttle = 0;
+        int supportedCodecs = 0;
+        String codecName = "png";
+        Dimension sourceSize = new Dimension(1080, 1920);
+        int sourceFps = 30;
+        int seconds = 30;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("-n".equals(arg)) {
+                    count = Integer.parseInt(args[++i]);
+                } else if ("-port".equals(arg)) {
+                    port = Integer.parseInt(args[++i]);
+                } else if ("-listen".equals(arg)) {
+                    listen = true;
+                } else if ("-request".equals(arg)) {
+                    request = true;
+                } else if ("-notiles".equals(arg)) {
+                    tiles = false;
+                } else if ("-noadaptive".equals(arg)) {
+                    adaptive = false;
+                } else if ("-actualsize".equals(arg)) {
+                    actualSize = true;
+                } else if ("-throttle".equals(arg)) {
+                    throttle = Integer.parseInt(args[++i]) * 1024;
+                } else if ("-codecs".equals(arg)) {
+                    for (String name : args[++i].split(",")) {
+                        FrameCodec codec = FrameCodec.forName(name);
+                        if (codec == null) {
+                            throw new IllegalArgumentException("Unknown codec " + name);
+                        }
+                        supportedCodecs |= 1 << codec.getId();
+                    }
+                } else if ("-codec".equals(arg)) {
+                    codecName = args[++i];
+                } else if ("-source".equals(arg)) {
+                    sourceSize = parseSize(args[++i]);
+                } else if ("-fps".equals(arg)) {
+                    sourceFps = Integer.parseInt(args[++i]);
+                } else if ("-seconds".equals(arg)) {
+                    seconds = Integer.parseInt(args[++i]);
+                } else {
+                    sizes.add(parseSize(arg));
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        if (sizes.isEmpty()) {
+            sizes.add(new Dimension(720, 1280));
+        }
+        if (count <= 0) {
+            count = sizes.size();
+        }
+        if (port <= 0) {
+            port = listen ? Config.PORT_DEVICE : Config.PORT_LOCAL;
+        }
+
+        List<SimulatedDevice> devices = new ArrayList<SimulatedDevice>();
+        for (int i = 0; i < count; i++) {
+            SimulatedDevice device = new SimulatedDevice("device" + i, port + i,
+                    sizes.get(i % sizes.size()));
+            device.setStreaming(!request);
+            device.setTiles(tiles);
+            device.setAdaptive(adaptive);
+            device.setThrottle(throttle);
+            if (supportedCodecs != 0) {
+                device.setSupportedCodecs(supportedCodecs);
+            }
+            device.start();
+            devices.add(device);
+        }
+
+        Proofer proofer = null;
+        if (!listen) {
+            System.setProperty("java.awt.headless", "true");
+            proofer = new Proofer(null);
+            proofer.setSourceType(Proofer.SOURCE_TYPE_FILE);
+            proofer.setCodecName(codecName);
+            proofer.setActualSize(actualSize);
+            startSource(proofer, sourceSize, sourceFps);
+            for (SimulatedDevice device : devices) {
+                new DeviceSession(proofer, null, device.getPort()).start();
+            }
+        }
+
+        // Skip connection setup and warm-up, then report every few seconds.
+        Thread.sleep(2000);
+        for (SimulatedDevice device : devices) {
+            device.resetStats();
+        }
+        if (proofer != null) {
+            proofer.getStats().reset();
+        }
+
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(Math.min(5000, Math.max(1, end - System.currentTimeMillis())));
+            for (SimulatedDevice device : devices) {
+                System.out.println(device.getSummary());
+            }
+            if (proofer != null) {
+                System.out.println("Desktop: " + proofer.getStats());
+            }
+            System.out.println();
+        }
+
+        System.exit(0);
+    }
+
+    /**
+     * Feeds the desktop side a new frame of a mockup with a moving block at the given rate, so
+     * that every frame changes but only in part.
+     */
+    private static void startSource(final Proofer proofer, final Dimension size, final int fps) {
+        final BufferedImage background = createBackground(size);
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                int block = Math.max(1, size.width / 8);
+                for (int i = 0; ; i++) {
+                    BufferedImage bi = new BufferedImage(size.width, size.height,
+                            BufferedImage.TYPE_INT_RGB);
+                    Graphics2D g = bi.createGraphics();
+                    g.drawImage(background, 0, 0, null);
+                    g.setColor(new Color(0xff4444));
+                    g.fillRect((i * block / 4) % Math.max(1, size.width - block),
+                            size.height / 3, block, block);
+                    g.dispose();
+                    proofer.setImage(null, bi);
+
+                    try {
+                        Thread.sleep(1000 / Math.max(1, fps));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "LoadTest source");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static BufferedImage createBackground(Dimension size) {
+        BufferedImage bi = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = bi.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(0xf5f5f5), 0, size.height,
+                new Color(0xdddddd)));
+        g.fillRect(0, 0, size.width, size.height);
+
+        int row = Math.max(1, size.height / 12);
+        g.setColor(new Color(0x33b5e5));
+        g.fillRect(0, 0, size.width, row);
+        for (int y = row; y < size.height; y += row) {
+            g.setColor(new Color(0x999999));
+            g.fillRect(row / 4, y + row / 3, size.width / 2, row / 4);
+            g.setColor(new Color(0xcccccc));
+            g.drawLine(0, y, size.width, y);
+        }
+        g.dispose();
+        return bi;
+    }
+
+    private static Dimension parseSize(String size) {
+        String[] parts = size.split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Bad size " + size);
+        }
+        return new Dimension(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+}
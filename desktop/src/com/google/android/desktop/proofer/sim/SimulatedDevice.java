@@ -0,0 +1,356 @@
+/*
+ * Copyright 2012 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.desktop.proofer.sim;
+
+import com.google.android.desktop.proofer.FrameCache;
+import com.google.android.desktop.proofer.LatencyHistogram;
+import com.google.android.desktop.proofer.Protocol;
+import com.google.android.desktop.proofer.codec.FrameCodec;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * A stand-in for the Android viewer. Listens for the desktop on a local port like
+ * DesktopViewerActivity does on the device, speaks the same protocol, decodes every frame and
+ * keeps track of frame rate and latency. Latency runs from a request to the decoded frame or,
+ * when streaming, from an acknowledgement to the next decoded frame.
+ */
+public class SimulatedDevice {
+    private String name;
+    private int port;
+    private Dimension size;
+    private boolean streaming = true;
+    private boolean tiles = true;
+    private boolean adaptive = true;
+    private int supportedCodecs = (1 << Protocol.CODEC_PNG) | (1 << Protocol.CODEC_JPEG)
+            | (1 << Protocol.CODEC_RGB565) | (1 << Protocol.CODEC_RGB565_LZ4);
+    private long requestIntervalMillis = 50;
+    private int throttleBytesPerSecond;
+
+    private volatile boolean stopped;
+    private volatile ServerSocket server;
+    private volatile Socket socket;
+
+    private byte[] data = new byte[0];
+    private BufferedImage frame;
+
+    // Guarded by this.
+    private long startNanos;
+    private long frames;
+    private long unchangedFrames;
+    private long bytes;
+    private int connections;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram decode = new LatencyHistogram();
+
+    public SimulatedDevice(String name, int port, Dimension size) {
+        this.name = name;
+        this.port = port;
+        this.size = size;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public void setTiles(boolean tiles) {
+        this.tiles = tiles;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Slows reading frames down to the given rate, like a slow link would, or not at all if 0.
+     */
+    public void setThrottle(int bytesPerSecond) {
+        this.throttleBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Sets the codecs to advertise, as a bitmask of (1 << Protocol.CODEC_*).
+     */
+    public void setSupportedCodecs(int supportedCodecs) {
+        this.supportedCodecs = supportedCodecs;
+    }
+
+    /**
+     * Sets the pause between frame requests when not streaming; the viewer uses 50 msec.
+     */
+    public void setRequestIntervalMillis(long requestIntervalMillis) {
+        this.requestIntervalMillis = requestIntervalMillis;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void start() throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(InetAddress.getByName(null), port));
+        synchronized (this) {
+            startNanos = System.nanoTime();
+        }
+
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "SimulatedDevice " + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        stopped = true;
+        close(server);
+        close(socket);
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            try {
+                socket = server.accept();
+                synchronized (this) {
+                    connections++;
+                }
+                serve(socket);
+            } catch (IOException e) {
+                // Desktop went away, wait for it to connect again.
+            } finally {
+                close(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+
+        dos.writeInt(Protocol.HELLO_MAGIC);
+        dos.writeInt(Protocol.VERSION);
+        dos.writeInt((streaming ? Protocol.FLAG_STREAMING : 0) | (tiles ? Protocol.FLAG_TILES : 0)
+                | (adaptive ? Protocol.FLAG_ADAPTIVE : 0));
+        dos.writeInt(supportedCodecs);
+        dos.flush();
+
+        if (dis.readInt() != Protocol.HELLO_MAGIC) {
+            throw new IOException("Unexpected hello from desktop");
+        }
+        boolean sendTimings = dis.readInt() >= 2;
+        int mode = dis.readInt();
+        dis.readInt(); // target fps
+        FrameCodec codec = FrameCodec.getCodec(dis.readInt());
+        frame = null;
+
+        if (mode == Protocol.MODE_STREAM) {
+            writeViewport(dos, Protocol.MSG_VIEWPORT);
+            dos.flush();
+            while (!stopped) {
+                long before = System.nanoTime();
+                int seq = readFrame(dis, codec, before, sendTimings ? dos : null);
+                dos.writeInt(Protocol.MSG_ACK);
+                dos.writeInt(seq);
+                dos.flush();
+            }
+
+        } else {
+            while (!stopped) {
+                if (requestIntervalMillis > 0) {
+                    try {
+                        Thread.sleep(requestIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+
+                long before = System.nanoTime();
+                writeViewport(dos, Protocol.MSG_REQUEST);
+                dos.flush();
+                readFrame(dis, codec, before, sendTimings ? dos : null);
+                dos.flush();
+            }
+        }
+    }
+
+    private void writeViewport(DataOutputStream dos, int type) throws IOException {
+        dos.writeInt(type);
+        dos.writeInt(0);
+        dos.writeInt(0);
+        dos.writeInt(size.width);
+        dos.writeInt(size.height);
+    }
+
+    /**
+     * Reads and decodes one frame, recording its latency from the given start time. Writes the
+     * timings message if given a stream to write it to. Returns the frame's sequence number.
+     */
+    private int readFrame(DataInputStream dis, FrameCodec codec, long startNanos,
+            DataOutputStream timingsOut) throws IOException {
+        int type = dis.readInt();
+        int seq = dis.readInt();
+        int len = dis.readInt();
+        if (data.length < len) {
+            data = new byte[len];
+        }
+        dis.readFully(data, 0, len);
+        if (throttleBytesPerSecond > 0) {
+            try {
+                Thread.sleep((12 + len) * 1000L / throttleBytesPerSecond);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while reading a frame");
+            }
+        }
+
+        long decodeStart = System.nanoTime();
+        boolean decoded = true;
+        switch (type) {
+            case Protocol.FRAME_IMAGE:
+                frame = codec.decode(data, 0, len);
+                break;
+
+            case Protocol.FRAME_ADAPTIVE: {
+                if (len < 12) {
+                    throw new IOException("Truncated adaptive frame");
+                }
+                BufferedImage image = FrameCodec.getCodec(readInt(data, 0))
+                        .decode(data, 12, len - 12);
+                Dimension frameSize = new Dimension(readInt(data, 4), readInt(data, 8));
+                if (image.getWidth() != frameSize.width
+                        || image.getHeight() != frameSize.height) {
+                    image = FrameCache.scale(image, frameSize);
+                }
+                frame = image;
+                break;
+            }
+
+            case Protocol.FRAME_TILES:
+                if (frame == null) {
+                    throw new IOException("Got tiles before a full frame");
+                }
+                applyTiles(codec, len);
+                break;
+
+            default:
+                decoded = false;
+                break;
+        }
+        long now = System.nanoTime();
+
+        synchronized (this) {
+            bytes += 12 + len;
+            if (decoded) {
+                frames++;
+                decode.record(now - decodeStart);
+                latency.record(now - startNanos);
+            } else if (type == Protocol.FRAME_UNCHANGED) {
+                unchangedFrames++;
+            }
+        }
+
+        if (timingsOut != null) {
+            timingsOut.writeInt(Protocol.MSG_TIMINGS);
+            timingsOut.writeInt(seq);
+            timingsOut.writeInt(decoded ? (int) ((now - decodeStart) / 1000) : -1);
+            timingsOut.writeInt(-1); // nothing is displayed
+        }
+        return seq;
+    }
+
+    private void applyTiles(FrameCodec codec, int len) throws IOException {
+        Graphics2D g = frame.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        try {
+            int count = readInt(data, 0);
+            int offset = 4;
+            for (int i = 0; i < count; i++) {
+                int x = readInt(data, offset);
+                int y = readInt(data, offset + 4);
+                int tileLen = readInt(data, offset + 8);
+                offset += 12;
+                if (offset + tileLen > len) {
+                    throw new IOException("Truncated tiles frame");
+                }
+                g.drawImage(codec.decode(data, offset, tileLen), x, y, null);
+                offset += tileLen;
+            }
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Returns a one line summary of what's been received since the device started or was last
+     * reset.
+     */
+    public synchronized String getSummary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return String.format("%s %dx%d: %.1f fps, %.0f KB/s, %d unchanged, "
+                + "latency p50 %.1f p99 %.1f msec, decode p50 %.1f p99 %.1f msec, "
+                + "%d connection(s)",
+                name, size.width, size.height, frames / seconds, bytes / 1024.0 / seconds,
+                unchangedFrames, latency.getPercentileMillis(0.5),
+                latency.getPercentileMillis(0.99), decode.getPercentileMillis(0.5),
+                decode.getPercentileMillis(0.99), connections);
+    }
+
+    public synchronized void resetStats() {
+        startNanos = System.nanoTime();
+        frames = 0;
+        unchangedFrames = 0;
+        bytes = 0;
+        latency.reset();
+        decode.reset();
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static void close(ServerSocket s) {
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void close(Socket s) {
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}